@@ -1,5 +1,7 @@
 package com.onvifscanner;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -10,15 +12,26 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.onvifscanner.camera.CameraEvent;
 import com.onvifscanner.camera.OnvifCamera;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CameraAdapter extends RecyclerView.Adapter<CameraAdapter.ViewHolder> {
 
+    // Badges fade if a camera only ever reports the start of an event
+    private static final long BADGE_TTL_MS = 60_000;
+
     private List<OnvifCamera> cameras = new ArrayList<>();
     private OnCameraClickListener listener;
+    private final Map<String, CameraEvent> motionEvents = new HashMap<>();
+    private final Map<String, CameraEvent> tamperEvents = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // One pending badge expiry per camera and event type, replaced by each newer event
+    private final Map<String, Runnable> expiries = new HashMap<>();
 
     public interface OnCameraClickListener {
         void onCameraClick(OnvifCamera camera);
@@ -35,6 +48,46 @@ public class CameraAdapter extends RecyclerView.Adapter<CameraAdapter.ViewHolder
         notifyDataSetChanged();
     }
 
+    public void onCameraEvent(CameraEvent event) {
+        Map<String, CameraEvent> events =
+            event.getType() == CameraEvent.Type.MOTION ? motionEvents : tamperEvents;
+        events.put(event.getCameraId(), event);
+        refresh(event.getCameraId());
+        if (event.isActive()) {
+            scheduleExpiry(event);
+        }
+    }
+
+    /** Rebinds the row when the badge times out; otherwise it stays until something else rebinds it. */
+    private void scheduleExpiry(CameraEvent event) {
+        String cameraId = event.getCameraId();
+        String key = cameraId + "/" + event.getType();
+        Runnable previous = expiries.remove(key);
+        if (previous != null) handler.removeCallbacks(previous);
+
+        Runnable expiry = () -> {
+            expiries.remove(key);
+            refresh(cameraId);
+        };
+        expiries.put(key, expiry);
+        long remaining = event.getTimestamp() + BADGE_TTL_MS - System.currentTimeMillis();
+        handler.postDelayed(expiry, Math.max(0, remaining));
+    }
+
+    private void refresh(String cameraId) {
+        for (int i = 0; i < cameras.size(); i++) {
+            if (cameraId.equals(cameras.get(i).getId())) {
+                notifyItemChanged(i);
+                break;
+            }
+        }
+    }
+
+    private static boolean isActive(CameraEvent event) {
+        return event != null && event.isActive()
+            && System.currentTimeMillis() - event.getTimestamp() < BADGE_TTL_MS;
+    }
+
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -51,6 +104,15 @@ public class CameraAdapter extends RecyclerView.Adapter<CameraAdapter.ViewHolder
         holder.tvIp.setText(camera.getIpAddress() != null ? camera.getIpAddress() : "Manual Entry");
         holder.tvRtsp.setText(camera.getRtspUrl() != null ? camera.getRtspUrl() : "");
         
+        boolean motion = isActive(motionEvents.get(camera.getId()));
+        boolean tamper = isActive(tamperEvents.get(camera.getId()));
+        if (motion || tamper) {
+            holder.tvEventBadge.setText(motion && tamper ? "MOTION · TAMPER" : motion ? "MOTION" : "TAMPER");
+            holder.tvEventBadge.setVisibility(View.VISIBLE);
+        } else {
+            holder.tvEventBadge.setVisibility(View.GONE);
+        }
+        
         holder.ivType.setImageResource(
             camera.isManual() ? R.drawable.ic_camera_manual : R.drawable.ic_camera_onvif
         );
@@ -75,7 +137,7 @@ public class CameraAdapter extends RecyclerView.Adapter<CameraAdapter.ViewHolder
 
     static class ViewHolder extends RecyclerView.ViewHolder {
         ImageView ivType;
-        TextView tvName, tvIp, tvRtsp;
+        TextView tvName, tvIp, tvRtsp, tvEventBadge;
         ImageButton btnDelete;
 
         ViewHolder(View itemView) {
@@ -84,6 +146,7 @@ public class CameraAdapter extends RecyclerView.Adapter<CameraAdapter.ViewHolder
             tvName = itemView.findViewById(R.id.tvCameraName);
             tvIp = itemView.findViewById(R.id.tvCameraIp);
             tvRtsp = itemView.findViewById(R.id.tvRtspUrl);
+            tvEventBadge = itemView.findViewById(R.id.tvEventBadge);
             btnDelete = itemView.findViewById(R.id.btnDelete);
         }
     }
@@ -2,12 +2,19 @@ package com.onvifscanner;
 
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.Button;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.OptIn;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.PlaybackException;
@@ -19,10 +26,28 @@ import androidx.media3.exoplayer.rtsp.RtspMediaSource;
 import androidx.media3.exoplayer.source.MediaSource;
 import androidx.media3.ui.PlayerView;
 
+import com.onvifscanner.camera.CameraManager;
 import com.onvifscanner.camera.OnvifCamera;
+import com.onvifscanner.camera.StreamProfile;
+import com.onvifscanner.camera.StreamProfileSelector;
+import com.onvifscanner.network.CountingSocketFactory;
+import com.onvifscanner.network.OnvifDevice;
+import com.onvifscanner.network.PtzController;
+import com.onvifscanner.recording.PreEventRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CameraViewActivity extends AppCompatActivity {
 
+    private static final int PRE_EVENT_BUFFER_BYTES = 32 * 1024 * 1024;
+    private static final int PRE_EVENT_SECONDS = 15;
+    private static final int CLIP_TAIL_SECONDS = 5;
+    private static final long THROUGHPUT_SAMPLE_MS = 2000;
+
     private ExoPlayer player;
     private PlayerView playerView;
     private ProgressBar progressBar;
@@ -30,6 +55,24 @@ public class CameraViewActivity extends AppCompatActivity {
 
     private OnvifCamera camera;
 
+    private PtzController ptzController;
+    private View ptzOverlay;
+    private boolean ptzMode = false;
+    private float touchDownX;
+    private float touchDownY;
+
+    private PreEventRecorder recorder;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private StreamProfileSelector profileSelector;
+    private String streamUrl;
+    private boolean streamReady;
+    // The player's RTSP connection only, so the recorder, event polls and snapshots don't count
+    private final CountingSocketFactory streamSockets = new CountingSocketFactory();
+    private long lastRxBytes = -1;
+    private long lastRxTime;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -46,9 +89,90 @@ public class CameraViewActivity extends AppCompatActivity {
 
         initViews();
         setupPlayer();
-        startStream();
+        playerView.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> {
+            if (profileSelector == null) return;
+            if (right - left == oldRight - oldLeft && bottom - top == oldBottom - oldTop) return;
+            StreamProfile profile = profileSelector.onViewSize(right - left, bottom - top, System.currentTimeMillis());
+            if (profile != null) {
+                switchProfile(profile);
+            }
+        });
+        // Wait for layout so the profile choice can take the view size into account
+        playerView.post(() -> {
+            if (!camera.getProfiles().isEmpty()) {
+                initProfileSelector(camera.getProfiles());
+            }
+            if (profileSelector != null && !profileSelector.isEmpty()) {
+                switchProfile(profileSelector.getCurrent());
+            } else {
+                startStream(camera.getRtspUrl());
+            }
+            if (profileSelector == null) {
+                loadProfiles();
+            }
+        });
     }
 
+    private void loadProfiles() {
+        // Profiles come from the device service; manual RTSP-only entries have none
+        if (camera.getIpAddress() == null || camera.getIpAddress().isEmpty()) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                List<StreamProfile> profiles = new OnvifDevice(camera).getStreamProfiles();
+                if (profiles.isEmpty()) return;
+                camera.setProfiles(profiles);
+                // Into the shared store, so the list and the next viewer start from these profiles
+                CameraManager.getInstance(this).updateCamera(camera);
+                runOnUiThread(() -> {
+                    if (isFinishing()) return;
+                    initProfileSelector(profiles);
+                    StreamProfile profile = profileSelector.getCurrent();
+                    if (profile != null && !profile.getRtspUrl().equals(streamUrl)) {
+                        switchProfile(profile);
+                    }
+                });
+            } catch (Exception e) {
+                // Keep playing the stored URL
+            }
+        });
+    }
+
+    private void initProfileSelector(List<StreamProfile> profiles) {
+        profileSelector = new StreamProfileSelector(profiles);
+        profileSelector.onViewSize(playerView.getWidth(), playerView.getHeight(), System.currentTimeMillis());
+        handler.removeCallbacks(sampleThroughput);
+        handler.postDelayed(sampleThroughput, THROUGHPUT_SAMPLE_MS);
+    }
+
+    private void switchProfile(StreamProfile profile) {
+        ((TextView) findViewById(R.id.tvStreamUrl)).setText(profile.describe());
+        startStream(profile.getRtspUrl());
+    }
+
+    private final Runnable sampleThroughput = new Runnable() {
+        @Override
+        public void run() {
+            long rxBytes = streamSockets.getBytesRead();
+            long now = System.currentTimeMillis();
+            long previous = lastRxBytes;
+            long previousTime = lastRxTime;
+            // Restart the window whenever playback isn't running; startStream() clears it too
+            lastRxBytes = streamReady ? rxBytes : -1;
+            lastRxTime = now;
+            if (streamReady && previous >= 0) {
+                // bytes per millisecond * 8 = kbit/s
+                long kbps = (rxBytes - previous) * 8 / Math.max(1, now - previousTime);
+                StreamProfile profile = profileSelector.onThroughput(kbps, now);
+                if (profile != null) {
+                    switchProfile(profile);
+                }
+            }
+            handler.postDelayed(this, THROUGHPUT_SAMPLE_MS);
+        }
+    };
+
     private void initViews() {
         playerView = findViewById(R.id.playerView);
         progressBar = findViewById(R.id.progressBar);
@@ -61,9 +185,167 @@ public class CameraViewActivity extends AppCompatActivity {
         tvUrl.setText(camera.getRtspUrl());
 
         findViewById(R.id.btnClose).setOnClickListener(v -> finish());
+        findViewById(R.id.btnBuffer).setOnClickListener(v -> setBuffering(recorder == null));
+        findViewById(R.id.btnSaveClip).setOnClickListener(v -> saveClip());
+
+        initPtz();
+    }
+
+    private void setBuffering(boolean enabled) {
+        if (enabled) {
+            // ExoPlayer doesn't expose the raw stream, so this is a second session and the
+            // camera sends the stream twice; on the played profile, not the main stream
+            String url = streamUrl != null ? streamUrl : camera.getRtspUrl();
+            try {
+                // A file per recorder: the one being stopped releases and deletes its own later
+                File bufferFile = File.createTempFile("prebuffer_", ".bin", getCacheDir());
+                recorder = new PreEventRecorder(camera, url, bufferFile, PRE_EVENT_BUFFER_BYTES);
+                recorder.start();
+            } catch (IOException e) {
+                recorder = null;
+                Toast.makeText(this, "Failed to start buffer: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                return;
+            }
+        } else if (recorder != null) {
+            recorder.stop();
+            recorder = null;
+        }
+        ((Button) findViewById(R.id.btnBuffer)).setText(enabled ? "Stop Buffer" : "Buffer");
+        findViewById(R.id.btnSaveClip).setVisibility(enabled ? View.VISIBLE : View.GONE);
+    }
+
+    private void saveClip() {
+        if (recorder == null) return;
+        File dir = getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+        if (dir == null) dir = getFilesDir();
+        String name = camera.getName().replaceAll("[^A-Za-z0-9_-]", "_") + "_" + System.currentTimeMillis() + ".mp4";
+        File output = new File(dir, name);
+
+        Toast.makeText(this, "Saving last " + PRE_EVENT_SECONDS + "s...", Toast.LENGTH_SHORT).show();
+        recorder.saveClip(output, PRE_EVENT_SECONDS, CLIP_TAIL_SECONDS, new PreEventRecorder.Callback() {
+            @Override
+            public void onSaved(File file) {
+                runOnUiThread(() -> Toast.makeText(CameraViewActivity.this,
+                    "Clip saved: " + file.getName(), Toast.LENGTH_LONG).show());
+            }
+
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> Toast.makeText(CameraViewActivity.this,
+                    "Clip failed: " + error, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    private void initPtz() {
+        // PTZ needs the ONVIF device service; manual RTSP-only entries have no address
+        if (camera.getIpAddress() == null || camera.getIpAddress().isEmpty()) {
+            return;
+        }
+
+        ptzController = new PtzController(new OnvifDevice(camera));
+        ptzOverlay = findViewById(R.id.ptzOverlay);
+        findViewById(R.id.ptzControls).setVisibility(View.VISIBLE);
+
+        findViewById(R.id.btnPtz).setOnClickListener(v -> setPtzMode(!ptzMode));
+        findViewById(R.id.btnPresets).setOnClickListener(v -> showPresetsDialog());
+        findViewById(R.id.btnZoomIn).setOnTouchListener((v, event) -> onZoomTouch(v, event, 0.5f));
+        findViewById(R.id.btnZoomOut).setOnTouchListener((v, event) -> onZoomTouch(v, event, -0.5f));
+        ptzOverlay.setOnTouchListener(this::onPtzTouch);
+    }
+
+    private void setPtzMode(boolean enabled) {
+        ptzMode = enabled;
+        int visibility = enabled ? View.VISIBLE : View.GONE;
+        ptzOverlay.setVisibility(visibility);
+        findViewById(R.id.btnZoomIn).setVisibility(visibility);
+        findViewById(R.id.btnZoomOut).setVisibility(visibility);
+        findViewById(R.id.btnPresets).setVisibility(visibility);
+        ((Button) findViewById(R.id.btnPtz)).setText(enabled ? "Done" : "PTZ");
+        if (!enabled) {
+            ptzController.stop();
+        }
+    }
+
+    private boolean onPtzTouch(View v, MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                touchDownX = event.getX();
+                touchDownY = event.getY();
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                // Drag distance from the touch-down point, half the view = full speed
+                float pan = (event.getX() - touchDownX) / (v.getWidth() / 2f);
+                float tilt = -(event.getY() - touchDownY) / (v.getHeight() / 2f);
+                ptzController.move(pan, tilt, 0f);
+                return true;
+            case MotionEvent.ACTION_UP:
+                v.performClick();
+                ptzController.stop();
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                ptzController.stop();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean onZoomTouch(View v, MotionEvent event, float speed) {
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            ptzController.move(0f, 0f, speed);
+        } else if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+            v.performClick();
+            ptzController.stop();
+        } else if (event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
+            ptzController.stop();
+        }
+        return true;
+    }
+
+    private void showPresetsDialog() {
+        ptzController.loadPresets(new PtzController.Callback<List<PtzController.Preset>>() {
+            @Override
+            public void onResult(List<PtzController.Preset> presets) {
+                runOnUiThread(() -> {
+                    if (presets.isEmpty()) {
+                        Toast.makeText(CameraViewActivity.this, "No presets defined", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    String[] names = new String[presets.size()];
+                    for (int i = 0; i < presets.size(); i++) {
+                        names[i] = presets.get(i).name;
+                    }
+                    new AlertDialog.Builder(CameraViewActivity.this)
+                        .setTitle("Go to Preset")
+                        .setItems(names, (dialog, which) -> gotoPreset(presets.get(which)))
+                        .setNegativeButton("Cancel", null)
+                        .show();
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> Toast.makeText(CameraViewActivity.this,
+                    "PTZ error: " + error, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    private void gotoPreset(PtzController.Preset preset) {
+        ptzController.gotoPreset(preset.token, new PtzController.Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+            }
+
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> Toast.makeText(CameraViewActivity.this,
+                    "PTZ error: " + error, Toast.LENGTH_SHORT).show());
+            }
+        });
     }
 
-    @OptIn(markerClass = UnstableApi.class)
     private void setupPlayer() {
         player = new ExoPlayer.Builder(this).build();
         playerView.setPlayer(player);
@@ -75,9 +357,18 @@ public class CameraViewActivity extends AppCompatActivity {
                     if (playbackState == Player.STATE_BUFFERING) {
                         progressBar.setVisibility(View.VISIBLE);
                         tvError.setVisibility(View.GONE);
+                        if (streamReady && profileSelector != null) {
+                            // Rebuffering after playback had started: the link can't keep up
+                            streamReady = false;
+                            StreamProfile profile = profileSelector.onStall(System.currentTimeMillis());
+                            if (profile != null) {
+                                switchProfile(profile);
+                            }
+                        }
                     } else if (playbackState == Player.STATE_READY) {
                         progressBar.setVisibility(View.GONE);
                         tvError.setVisibility(View.GONE);
+                        streamReady = true;
                     } else if (playbackState == Player.STATE_ENDED) {
                         progressBar.setVisibility(View.GONE);
                     }
@@ -96,15 +387,27 @@ public class CameraViewActivity extends AppCompatActivity {
     }
 
     @OptIn(markerClass = UnstableApi.class)
-    private void startStream() {
+    private void startStream(String url) {
         progressBar.setVisibility(View.VISIBLE);
         tvError.setVisibility(View.GONE);
+        streamUrl = url;
+        streamReady = false;
+        lastRxBytes = -1;
+        if (recorder != null && !url.equals(recorder.getRtspUrl())) {
+            // Follow the profile switch; what was buffered from the old stream is dropped
+            setBuffering(false);
+            setBuffering(true);
+        }
 
-        String rtspUrl = buildRtspUrl();
+        String rtspUrl = buildRtspUrl(url);
         
         try {
             MediaItem mediaItem = MediaItem.fromUri(rtspUrl);
-            RtspMediaSource.Factory rtspFactory = new RtspMediaSource.Factory();
+            // RTP interleaved on the RTSP connection, so the counting sockets see the media too;
+            // the RTSP source doesn't report its RTP transfers to a bandwidth meter
+            RtspMediaSource.Factory rtspFactory = new RtspMediaSource.Factory()
+                .setForceUseRtpTcp(true)
+                .setSocketFactory(streamSockets);
             MediaSource mediaSource = rtspFactory.createMediaSource(mediaItem);
             
             player.setMediaSource(mediaSource);
@@ -118,9 +421,7 @@ public class CameraViewActivity extends AppCompatActivity {
         }
     }
 
-    private String buildRtspUrl() {
-        String url = camera.getRtspUrl();
-        
+    private String buildRtspUrl(String url) {
         // If credentials exist, inject them into RTSP URL
         if (!camera.getUsername().isEmpty() && !camera.getPassword().isEmpty()) {
             if (url.startsWith("rtsp://")) {
@@ -147,6 +448,13 @@ public class CameraViewActivity extends AppCompatActivity {
         if (player != null) {
             player.stop();
         }
+        if (ptzController != null) {
+            ptzController.stop();
+        }
+        if (recorder != null) {
+            setBuffering(false);
+        }
+        handler.removeCallbacks(sampleThroughput);
     }
 
     @Override
@@ -155,5 +463,9 @@ public class CameraViewActivity extends AppCompatActivity {
         if (player != null) {
             player.release();
         }
+        if (ptzController != null) {
+            ptzController.release();
+        }
+        executor.shutdownNow();
     }
 }
@@ -2,17 +2,26 @@ package com.onvifscanner;
 
 import android.Manifest;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.OpenableColumns;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
@@ -21,16 +30,31 @@ import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.onvifscanner.camera.CameraInventoryIO;
 import com.onvifscanner.camera.CameraManager;
+import com.onvifscanner.camera.CameraSearchIndex;
 import com.onvifscanner.camera.OnvifCamera;
+import com.onvifscanner.network.EventEngine;
+import com.onvifscanner.network.IpRange;
+import com.onvifscanner.network.MotionTriage;
+import com.onvifscanner.network.NeighborTable;
 import com.onvifscanner.network.NetworkScanner;
+import com.onvifscanner.network.ScanThrottle;
 
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity implements CameraAdapter.OnCameraClickListener {
 
     private static final int PERMISSION_REQUEST_CODE = 100;
+    private static final String SCAN_PREFS = "scan_options";
+    private static final int DEFAULT_PROBE_RATE = 200;
+    private static final int DEFAULT_SUBNET_RATE = 100;
     
     private RecyclerView recyclerView;
     private CameraAdapter adapter;
@@ -39,25 +63,60 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
     
     private CameraManager cameraManager;
     private NetworkScanner networkScanner;
+    private SharedPreferences scanOptions;
+    private final NeighborTable neighborTable = new NeighborTable();
+    private boolean neighborTableReadable;
+    private EventEngine eventEngine;
+    private MotionTriage motionTriage;
+    private boolean sortByActivity = false;
     private int scanCount = 0;
 
+    private final CameraSearchIndex searchIndex = new CameraSearchIndex();
+    private List<OnvifCamera> allCameras = new ArrayList<>();
+    private String searchQuery = "";
+    private CharSequence emptyText;
+
+    private final ExecutorService inventoryExecutor = Executors.newSingleThreadExecutor();
+    private final ActivityResultLauncher<String[]> importLauncher = registerForActivityResult(
+        new ActivityResultContracts.OpenDocument(), uri -> {
+            if (uri != null) importInventory(uri);
+        });
+    private final ActivityResultLauncher<String> exportCsvLauncher = registerForActivityResult(
+        new ActivityResultContracts.CreateDocument("text/csv"), uri -> {
+            if (uri != null) exportInventory(uri, CameraInventoryIO.Format.CSV);
+        });
+    private final ActivityResultLauncher<String> exportJsonLauncher = registerForActivityResult(
+        new ActivityResultContracts.CreateDocument("application/x-ndjson"), uri -> {
+            if (uri != null) exportInventory(uri, CameraInventoryIO.Format.JSON_LINES);
+        });
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        cameraManager = new CameraManager(this);
+        cameraManager = CameraManager.getInstance(this);
         networkScanner = new NetworkScanner(this);
+        scanOptions = getSharedPreferences(SCAN_PREFS, MODE_PRIVATE);
+        // Denied to apps from Android 10 on; the ARP option is hidden then
+        neighborTableReadable = neighborTable.isReadable();
+        applyScanOptions();
+        eventEngine = new EventEngine((camera, event) ->
+            runOnUiThread(() -> adapter.onCameraEvent(event)));
+        // The ranking is computed on the triage thread; the UI only swaps it in
+        motionTriage = new MotionTriage(() -> runOnUiThread(() -> {
+            if (sortByActivity) refreshOrder();
+        }));
 
         initViews();
         checkPermissions();
-        loadSavedCameras();
     }
 
     private void initViews() {
         recyclerView = findViewById(R.id.recyclerView);
         progressBar = findViewById(R.id.progressBar);
         emptyView = findViewById(R.id.emptyView);
+        emptyText = emptyView.getText();
 
         adapter = new CameraAdapter(new ArrayList<>(), this);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
@@ -68,6 +127,43 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
 
         Button btnAddManual = findViewById(R.id.btnAddManual);
         btnAddManual.setOnClickListener(v -> showAddCameraDialog());
+
+        EditText etSearch = findViewById(R.id.etSearch);
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchQuery = s.toString().trim();
+                applySearch();
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Picks up changes made elsewhere, such as stream profiles cached by the camera view
+        loadSavedCameras();
+        // Only while the list is visible; no polling the cameras from the background
+        eventEngine.start(cameraManager.getCameras());
+        if (sortByActivity) {
+            motionTriage.start(cameraManager.getCameras());
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        cameraManager.flush();
+        motionTriage.stop();
+        eventEngine.stop();
     }
 
     private void checkPermissions() {
@@ -92,9 +188,12 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
         }
     }
 
+    /** The store may still be loading on its own thread; the list fills in when it's ready. */
     private void loadSavedCameras() {
-        List<OnvifCamera> cameras = cameraManager.getCameras();
-        updateCameraList(cameras);
+        cameraManager.whenLoaded(() -> runOnUiThread(() -> {
+            if (isDestroyed()) return;
+            updateCameraList(cameraManager.getCameras());
+        }));
     }
 
     private void startNetworkScan() {
@@ -102,7 +201,36 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
         emptyView.setVisibility(View.GONE);
         scanCount = 0;
 
-        networkScanner.scanForOnvifCameras(new NetworkScanner.ScanCallback() {
+        networkScanner.scanForOnvifCameras(scanCallback());
+    }
+
+    /** Unicast WS-Discovery over the routed subnets saved in Scan Options. */
+    private void startSubnetScan() {
+        List<String> ranges = new ArrayList<>();
+        for (String range : scanOptions.getString("subnets", "").split("[,\\s]+")) {
+            if (range.isEmpty()) continue;
+            try {
+                IpRange.parse(range);
+            } catch (IllegalArgumentException e) {
+                Toast.makeText(this, "Invalid subnet: " + range, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            ranges.add(range);
+        }
+        if (ranges.isEmpty()) {
+            Toast.makeText(this, "Enter at least one subnet to scan", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        progressBar.setVisibility(View.VISIBLE);
+        emptyView.setVisibility(View.GONE);
+        scanCount = 0;
+
+        networkScanner.scanSubnets(ranges, scanCallback());
+    }
+
+    private NetworkScanner.ScanCallback scanCallback() {
+        return new NetworkScanner.ScanCallback() {
             @Override
             public void onCameraFound(OnvifCamera camera) {
                 runOnUiThread(() -> {
@@ -119,7 +247,8 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
                 runOnUiThread(() -> {
                     progressBar.setVisibility(View.GONE);
                     
-                    // Refresh from saved cameras
+                    // Refresh from saved cameras; everything found is written in one go
+                    cameraManager.flush();
                     List<OnvifCamera> savedCameras = cameraManager.getCameras();
                     updateCameraList(savedCameras);
                     
@@ -149,7 +278,70 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
                         Toast.LENGTH_LONG).show();
                 });
             }
-        });
+        };
+    }
+
+    private void showScanOptionsDialog() {
+        View dialogView = getLayoutInflater().inflate(R.layout.dialog_scan_options, null);
+
+        EditText etSubnets = dialogView.findViewById(R.id.etSubnets);
+        EditText etExpected = dialogView.findViewById(R.id.etExpectedCameras);
+        EditText etRate = dialogView.findViewById(R.id.etProbeRate);
+        EditText etSubnetRate = dialogView.findViewById(R.id.etSubnetRate);
+        CheckBox cbSkip = dialogView.findViewById(R.id.cbSkipUnresolved);
+
+        etSubnets.setText(scanOptions.getString("subnets", ""));
+        int expected = scanOptions.getInt("expected_cameras", 0);
+        if (expected > 0) etExpected.setText(String.valueOf(expected));
+        etRate.setText(String.valueOf(scanOptions.getInt("probe_rate", DEFAULT_PROBE_RATE)));
+        etSubnetRate.setText(String.valueOf(scanOptions.getInt("subnet_rate", DEFAULT_SUBNET_RATE)));
+        cbSkip.setChecked(scanOptions.getBoolean("skip_unresolved", false));
+        cbSkip.setVisibility(neighborTableReadable ? View.VISIBLE : View.GONE);
+
+        new AlertDialog.Builder(this)
+            .setTitle("Scan Options")
+            .setView(dialogView)
+            .setPositiveButton("Save", (dialog, which) ->
+                saveScanOptions(etSubnets, etExpected, etRate, etSubnetRate, cbSkip))
+            .setNeutralButton("Scan Subnets", (dialog, which) -> {
+                saveScanOptions(etSubnets, etExpected, etRate, etSubnetRate, cbSkip);
+                startSubnetScan();
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    private void saveScanOptions(EditText etSubnets, EditText etExpected, EditText etRate,
+                                 EditText etSubnetRate, CheckBox cbSkip) {
+        scanOptions.edit()
+            .putString("subnets", etSubnets.getText().toString().trim())
+            .putInt("expected_cameras", parsePositive(etExpected, 0))
+            .putInt("probe_rate", parsePositive(etRate, DEFAULT_PROBE_RATE))
+            .putInt("subnet_rate", parsePositive(etSubnetRate, DEFAULT_SUBNET_RATE))
+            .putBoolean("skip_unresolved", cbSkip.isChecked())
+            .apply();
+        applyScanOptions();
+    }
+
+    /** Hands the saved options to the scanner; they take effect from the next scan. */
+    private void applyScanOptions() {
+        int rate = scanOptions.getInt("probe_rate", DEFAULT_PROBE_RATE);
+        boolean skipUnresolved = neighborTableReadable && scanOptions.getBoolean("skip_unresolved", false);
+        networkScanner.setExpectedDevices(scanOptions.getInt("expected_cameras", 0));
+        networkScanner.setDirectedProbeRate(rate);
+        // Two separate settings; a scan of one /24 runs at the lower of the two
+        networkScanner.setThrottle(new ScanThrottle(rate, scanOptions.getInt("subnet_rate", DEFAULT_SUBNET_RATE)));
+        // Skipping only works if every host was nudged, so the kernel has an entry for it
+        networkScanner.setNeighborPrefilter(neighborTable, skipUnresolved, skipUnresolved);
+    }
+
+    private static int parsePositive(EditText field, int fallback) {
+        try {
+            int value = Integer.parseInt(field.getText().toString().trim());
+            return value > 0 ? value : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
     }
 
     private void showAddCameraDialog() {
@@ -191,9 +383,153 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
             .show();
     }
 
+    private void importInventory(Uri uri) {
+        String fileName = null;
+        long size = -1;
+        try (Cursor cursor = getContentResolver().query(uri,
+                new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                fileName = cursor.getString(0);
+                size = cursor.isNull(1) ? -1 : cursor.getLong(1);
+            }
+        }
+        // Unknown extension: the importer sniffs the content instead
+        CameraInventoryIO.Format format = CameraInventoryIO.Format.fromFileName(fileName);
+        long totalBytes = size;
+
+        View dialogView = getLayoutInflater().inflate(R.layout.dialog_progress, null);
+        ProgressBar bar = dialogView.findViewById(R.id.progressTransfer);
+        TextView tvProgress = dialogView.findViewById(R.id.tvProgress);
+        bar.setIndeterminate(totalBytes <= 0);
+        AlertDialog dialog = new AlertDialog.Builder(this)
+            .setTitle("Importing Cameras")
+            .setView(dialogView)
+            .setCancelable(false)
+            .show();
+
+        inventoryExecutor.execute(() -> {
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+                if (in == null) throw new FileNotFoundException(uri.toString());
+                CameraInventoryIO.ImportResult result = CameraInventoryIO.importCameras(in, format, cameraManager,
+                    (records, bytes) -> runOnUiThread(() -> {
+                        if (totalBytes > 0) bar.setProgress((int) (bytes * 100 / totalBytes));
+                        tvProgress.setText(records + " records read");
+                    }));
+                runOnUiThread(() -> {
+                    dialog.dismiss();
+                    updateCameraList(cameraManager.getCameras());
+                    Toast.makeText(this, "Imported " + result.added + " camera(s), "
+                        + result.duplicates + " duplicate(s), " + result.invalid + " invalid",
+                        Toast.LENGTH_LONG).show();
+                });
+            } catch (Exception e) {
+                runOnUiThread(() -> {
+                    dialog.dismiss();
+                    // Batches added before the failure are kept; show them and persist
+                    updateCameraList(cameraManager.getCameras());
+                    Toast.makeText(this, "Import failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                });
+                cameraManager.saveCameras();
+            }
+        });
+    }
+
+    private void showExportDialog() {
+        new AlertDialog.Builder(this)
+            .setTitle("Export Cameras")
+            .setItems(new String[]{"CSV", "JSON Lines"}, (d, which) -> {
+                if (which == 0) {
+                    exportCsvLauncher.launch("cameras.csv");
+                } else {
+                    exportJsonLauncher.launch("cameras.jsonl");
+                }
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    private void exportInventory(Uri uri, CameraInventoryIO.Format format) {
+        List<OnvifCamera> cameras = cameraManager.getCameras();
+
+        View dialogView = getLayoutInflater().inflate(R.layout.dialog_progress, null);
+        ProgressBar bar = dialogView.findViewById(R.id.progressTransfer);
+        TextView tvProgress = dialogView.findViewById(R.id.tvProgress);
+        bar.setIndeterminate(false);
+        AlertDialog dialog = new AlertDialog.Builder(this)
+            .setTitle("Exporting Cameras")
+            .setView(dialogView)
+            .setCancelable(false)
+            .show();
+
+        inventoryExecutor.execute(() -> {
+            try (OutputStream out = getContentResolver().openOutputStream(uri)) {
+                if (out == null) throw new FileNotFoundException(uri.toString());
+                CameraInventoryIO.exportCameras(cameras, out, format, (records, bytes) -> runOnUiThread(() -> {
+                    bar.setProgress(cameras.isEmpty() ? 100 : records * 100 / cameras.size());
+                    tvProgress.setText(records + " of " + cameras.size() + " written");
+                }));
+                runOnUiThread(() -> {
+                    dialog.dismiss();
+                    Toast.makeText(this, "Exported " + cameras.size() + " camera(s)", Toast.LENGTH_SHORT).show();
+                });
+            } catch (Exception e) {
+                runOnUiThread(() -> {
+                    dialog.dismiss();
+                    Toast.makeText(this, "Export failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                });
+            }
+        });
+    }
+
     private void updateCameraList(List<OnvifCamera> cameras) {
+        allCameras = cameras != null ? cameras : new ArrayList<>();
+        motionTriage.setCameras(allCameras);
+        eventEngine.update(allCameras);
+        searchIndex.setCameras(allCameras);
+        refreshOrder();
+    }
+
+    /** Saved cameras, most active first while sorting by activity. */
+    private List<OnvifCamera> displayOrder() {
+        return sortByActivity ? motionTriage.getRanked() : allCameras;
+    }
+
+    /** Re-sorts the shown list and search results; the search index itself is left alone. */
+    private void refreshOrder() {
+        searchIndex.setOrder(displayOrder());
+        applySearch();
+    }
+
+    private void applySearch() {
+        if (searchQuery.isEmpty()) {
+            showCameras(displayOrder());
+            return;
+        }
+        // Index work stays off the main thread; stale queries are dropped by the index
+        searchIndex.search(searchQuery, (query, results) -> runOnUiThread(() -> {
+            if (query.equals(searchQuery)) {
+                showCameras(results);
+            }
+        }));
+    }
+
+    private void setSortByActivity(boolean enabled) {
+        sortByActivity = enabled;
+        if (enabled) {
+            // Scores build up over the next snapshot cycles; the list re-sorts after each
+            motionTriage.start(cameraManager.getCameras());
+            Toast.makeText(this, "Ranking cameras by snapshot activity", Toast.LENGTH_SHORT).show();
+        } else {
+            motionTriage.stop();
+        }
+        refreshOrder();
+    }
+
+    private void showCameras(List<OnvifCamera> cameras) {
         adapter.updateCameras(cameras);
-        
+        emptyView.setText(searchQuery.isEmpty() || allCameras.isEmpty()
+            ? emptyText : "No cameras match \"" + searchQuery + "\"");
+
         if (cameras == null || cameras.isEmpty()) {
             emptyView.setVisibility(View.VISIBLE);
             recyclerView.setVisibility(View.GONE);
@@ -228,6 +564,14 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
             .show();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        networkScanner.shutdown();
+        searchIndex.shutdown();
+        inventoryExecutor.shutdown();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
@@ -236,6 +580,24 @@ public class MainActivity extends AppCompatActivity implements CameraAdapter.OnC
 
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_scan_options) {
+            showScanOptionsDialog();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_sort_activity) {
+            item.setChecked(!item.isChecked());
+            setSortByActivity(item.isChecked());
+            return true;
+        }
+        if (item.getItemId() == R.id.action_import) {
+            importLauncher.launch(new String[]{"text/*", "application/json", "application/x-ndjson",
+                "application/octet-stream"});
+            return true;
+        }
+        if (item.getItemId() == R.id.action_export) {
+            showExportDialog();
+            return true;
+        }
         if (item.getItemId() == R.id.action_clear) {
             new AlertDialog.Builder(this)
                 .setTitle("Clear All Cameras")
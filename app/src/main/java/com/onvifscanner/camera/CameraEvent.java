@@ -0,0 +1,29 @@
+package com.onvifscanner.camera;
+
+public class CameraEvent {
+    public enum Type { MOTION, TAMPER }
+
+    private final String cameraId;
+    private final Type type;
+    private final boolean active;
+    private final long timestamp;
+    private final String topic;
+
+    public CameraEvent(String cameraId, Type type, boolean active, long timestamp, String topic) {
+        this.cameraId = cameraId;
+        this.type = type;
+        this.active = active;
+        this.timestamp = timestamp;
+        this.topic = topic;
+    }
+
+    public String getCameraId() { return cameraId; }
+
+    public Type getType() { return type; }
+
+    public boolean isActive() { return active; }
+
+    public long getTimestamp() { return timestamp; }
+
+    public String getTopic() { return topic; }
+}
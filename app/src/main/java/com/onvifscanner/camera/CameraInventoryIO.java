@@ -0,0 +1,373 @@
+package com.onvifscanner.camera;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bulk import and export of camera inventories as CSV, JSON Lines or a JSON
+ * array. Files are processed one record at a time and inserted in batches, so
+ * memory use doesn't depend on the file size.
+ */
+public class CameraInventoryIO {
+    private static final int BATCH_SIZE = 1000;
+    // Leading characters examined to tell JSON Lines from CSV
+    private static final int SNIFF_LIMIT = 1024;
+    private static final String[] CSV_COLUMNS = {
+        "name", "ip", "port", "rtsp_url", "username", "password", "manufacturer", "model"
+    };
+
+    public enum Format {
+        CSV, JSON_LINES, JSON;
+
+        /**
+         * By file extension; null if it isn't recognised. Also null for .json,
+         * which is used for both arrays and JSON Lines, so the content decides.
+         */
+        public static Format fromFileName(String name) {
+            if (name == null) return null;
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".csv")) return CSV;
+            if (lower.endsWith(".jsonl") || lower.endsWith(".ndjson")) return JSON_LINES;
+            return null;
+        }
+    }
+
+    public interface Progress {
+        void onProgress(int records, long bytes);
+    }
+
+    public static class ImportResult {
+        public int added;
+        public int duplicates;
+        public int invalid;
+    }
+
+    public static ImportResult importCameras(InputStream input, Format format, CameraManager manager,
+                                             Progress progress) throws IOException {
+        return importCameras(input, format, manager::addCameras, manager::saveCameras, progress);
+    }
+
+    /** addBatch returns how many of the batch were new; save runs once, after the last batch. */
+    static ImportResult importCameras(InputStream input, Format format, ToIntFunction<List<OnvifCamera>> addBatch,
+                                      Runnable save, Progress progress) throws IOException {
+        CountingInputStream counting = new CountingInputStream(input);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(counting, StandardCharsets.UTF_8));
+        ImportResult result = new ImportResult();
+        List<OnvifCamera> batch = new ArrayList<>(BATCH_SIZE);
+        int[] records = {0};
+
+        Consumer<OnvifCamera> sink = camera -> {
+            records[0]++;
+            if (camera == null || !normalize(camera)) {
+                result.invalid++;
+            } else {
+                batch.add(camera);
+            }
+            if (batch.size() == BATCH_SIZE) {
+                flushBatch(batch, addBatch, result);
+                progress.onProgress(records[0], counting.count);
+            }
+        };
+
+        if (format == null) {
+            format = sniff(reader);
+        }
+        if (format == Format.CSV) {
+            readCsv(reader, sink);
+        } else if (format == Format.JSON) {
+            readJsonArray(reader, new Gson(), sink);
+        } else {
+            readJsonLines(reader, new Gson(), sink);
+        }
+        flushBatch(batch, addBatch, result);
+        save.run();
+        progress.onProgress(records[0], counting.count);
+        return result;
+    }
+
+    public static void exportCameras(List<OnvifCamera> cameras, OutputStream output, Format format,
+                                     Progress progress) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (format == Format.CSV) {
+            writeCsvRow(writer, CSV_COLUMNS);
+            String[] row = new String[CSV_COLUMNS.length];
+            for (int i = 0; i < cameras.size(); i++) {
+                OnvifCamera camera = cameras.get(i);
+                row[0] = camera.getName();
+                row[1] = camera.getIpAddress();
+                row[2] = camera.getIpAddress() != null ? String.valueOf(camera.getPort()) : null;
+                row[3] = camera.getRtspUrl();
+                row[4] = camera.getUsername();
+                row[5] = camera.getPassword();
+                row[6] = camera.getManufacturer();
+                row[7] = camera.getModel();
+                writeCsvRow(writer, row);
+                if ((i + 1) % BATCH_SIZE == 0) progress.onProgress(i + 1, 0);
+            }
+        } else if (format == Format.JSON) {
+            writeJsonArray(cameras, writer, new Gson());
+        } else {
+            writeJsonLines(cameras, writer, new Gson());
+        }
+        writer.flush();
+        progress.onProgress(cameras.size(), 0);
+    }
+
+    /** One camera per non-blank line; lines that don't parse are passed on as null. */
+    static void readJsonLines(Reader reader, Gson gson, Consumer<OnvifCamera> sink) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader
+            ? (BufferedReader) reader : new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            OnvifCamera camera;
+            try {
+                camera = gson.fromJson(line, OnvifCamera.class);
+            } catch (JsonParseException e) {
+                camera = null;
+            }
+            sink.accept(camera);
+        }
+    }
+
+    /**
+     * Streams the elements of a top-level array, one camera each; elements that
+     * don't map to a camera are passed on as null.
+     */
+    static void readJsonArray(BufferedReader reader, Gson gson, Consumer<OnvifCamera> sink) throws IOException {
+        reader.mark(1);
+        if (reader.read() != '\uFEFF') reader.reset();
+        JsonReader json = gson.newJsonReader(reader);
+        try {
+            json.beginArray();
+            while (json.hasNext()) {
+                // Parsed as a tree first, so a bad record is consumed whole and the next one still reads
+                JsonElement element = JsonParser.parseReader(json);
+                OnvifCamera camera;
+                try {
+                    camera = element.isJsonObject() ? gson.fromJson(element, OnvifCamera.class) : null;
+                } catch (JsonParseException e) {
+                    camera = null;
+                }
+                sink.accept(camera);
+            }
+            json.endArray();
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new IOException("Not a JSON array of cameras: " + e.getMessage(), e);
+        }
+    }
+
+    static void writeJsonArray(List<OnvifCamera> cameras, Writer writer, Gson gson) throws IOException {
+        JsonWriter json = gson.newJsonWriter(writer);
+        json.beginArray();
+        for (OnvifCamera camera : cameras) {
+            gson.toJson(camera, OnvifCamera.class, json);
+        }
+        json.endArray();
+        json.flush();
+    }
+
+    static void writeJsonLines(List<OnvifCamera> cameras, Writer writer, Gson gson) throws IOException {
+        for (OnvifCamera camera : cameras) {
+            gson.toJson(camera, OnvifCamera.class, writer);
+            writer.write('\n');
+        }
+    }
+
+    private static void readCsv(BufferedReader reader, Consumer<OnvifCamera> sink) throws IOException {
+        List<String> fields = new ArrayList<>();
+        if (!readCsvRecord(reader, fields)) return;
+
+        // Column order comes from the header; unknown columns are ignored
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            String column = canonicalColumn(fields.get(i));
+            if (column != null && !columns.containsKey(column)) columns.put(column, i);
+        }
+        if (!columns.containsKey("ip") && !columns.containsKey("rtsp_url")) {
+            throw new IOException("CSV header needs an ip or rtsp_url column");
+        }
+
+        while (readCsvRecord(reader, fields)) {
+            if (fields.size() == 1 && fields.get(0).isEmpty()) continue;
+            OnvifCamera camera = new OnvifCamera();
+            camera.setName(field(fields, columns, "name"));
+            camera.setIpAddress(field(fields, columns, "ip"));
+            camera.setRtspUrl(field(fields, columns, "rtsp_url"));
+            camera.setUsername(field(fields, columns, "username"));
+            camera.setPassword(field(fields, columns, "password"));
+            camera.setManufacturer(field(fields, columns, "manufacturer"));
+            camera.setModel(field(fields, columns, "model"));
+            String port = field(fields, columns, "port");
+            try {
+                if (port != null) camera.setPort(Integer.parseInt(port));
+            } catch (NumberFormatException e) {
+                sink.accept(null);
+                continue;
+            }
+            sink.accept(camera);
+        }
+    }
+
+    static String canonicalColumn(String header) {
+        String key = header.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "");
+        switch (key) {
+            case "name": case "cameraname": return "name";
+            case "ip": case "ipaddress": case "address": case "host": return "ip";
+            case "port": case "onvifport": return "port";
+            case "rtsp": case "rtspurl": case "url": case "streamurl": return "rtsp_url";
+            case "user": case "username": case "login": return "username";
+            case "pass": case "password": return "password";
+            case "manufacturer": case "vendor": case "make": return "manufacturer";
+            case "model": return "model";
+            default: return null;
+        }
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= fields.size()) return null;
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /** Reads one RFC 4180 record (quoted fields may hold commas, quotes and newlines). */
+    private static boolean readCsvRecord(BufferedReader reader, List<String> fields) throws IOException {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int c = reader.read();
+        if (c == -1) return false;
+        while (c != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return true;
+    }
+
+    private static void writeCsvRow(Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            String value = values[i];
+            if (value == null) continue;
+            if (value.indexOf(',') != -1 || value.indexOf('"') != -1
+                    || value.indexOf('\n') != -1 || value.indexOf('\r') != -1) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Fills defaults and gives the record a fresh id, so a file exported from
+     * this store can't collide with the cameras already in it. False if the
+     * record has neither an address nor a stream URL.
+     */
+    static boolean normalize(OnvifCamera camera) {
+        if (camera.getIpAddress() == null && camera.getRtspUrl() == null) return false;
+        camera.setId(UUID.randomUUID().toString());
+        if (camera.getUsername() == null) camera.setUsername("");
+        if (camera.getPassword() == null) camera.setPassword("");
+        if (camera.getPort() <= 0) camera.setPort(80);
+        if (camera.getIpAddress() == null) camera.setManual(true);
+        if (camera.getName() == null) {
+            camera.setName(camera.getIpAddress() != null ? camera.getIpAddress() : "Camera");
+        }
+        return true;
+    }
+
+    private static void flushBatch(List<OnvifCamera> batch, ToIntFunction<List<OnvifCamera>> addBatch,
+                                   ImportResult result) {
+        if (batch.isEmpty()) return;
+        int added = addBatch.applyAsInt(batch);
+        result.added += added;
+        result.duplicates += batch.size() - added;
+        batch.clear();
+    }
+
+    static Format sniff(BufferedReader reader) throws IOException {
+        reader.mark(SNIFF_LIMIT);
+        int c;
+        int read = 0;
+        // Stop at the mark limit; past it reset() would fail. A file that is all blank that far is CSV
+        do {
+            c = reader.read();
+        } while (c != -1 && ++read < SNIFF_LIMIT && (Character.isWhitespace(c) || c == '\uFEFF'));
+        reader.reset();
+        if (c == '[') return Format.JSON;
+        return c == '{' ? Format.JSON_LINES : Format.CSV;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
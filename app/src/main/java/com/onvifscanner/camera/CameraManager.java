@@ -2,73 +2,303 @@ package com.onvifscanner.camera;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Saved cameras, kept as one JSON object per line in the app's files
+ * directory so large inventories are read and written as a stream. Older
+ * installs stored a single Gson string in SharedPreferences; it is migrated
+ * on first load. There is one instance per process, shared by all screens, so
+ * no screen saves over another's changes with a stale copy.
+ *
+ * The store is read on a background thread too, so a large inventory doesn't
+ * hold up the screen that first asks for it; whenLoaded() says when it is in.
+ * Changes are written on that thread shortly after they happen, so a burst of
+ * them (e.g. cameras found during a scan) costs one rewrite of the file
+ * rather than one per camera on the main thread.
+ */
 public class CameraManager {
+    private static final String TAG = "CameraManager";
     private static final String PREFS_NAME = "onvif_scanner_prefs";
     private static final String KEY_CAMERAS = "cameras";
+    private static final String STORE_FILE = "cameras.jsonl";
+    private static final long SAVE_DELAY_MS = 500;
+
+    private static CameraManager instance;
 
     private final SharedPreferences prefs;
+    private final File storeFile;
     private final Gson gson;
-    private List<OnvifCamera> cameras;
+    private List<OnvifCamera> cameras = new ArrayList<>();
+    // Lookup keys for cameraExists with how many cameras use each, kept in step with the list
+    private final Map<String, Integer> rtspUrls = new HashMap<>();
+    private final Map<String, Integer> ipAddresses = new HashMap<>();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final List<Runnable> loadCallbacks = new ArrayList<>();
+    // Orders whole-file writes so an older snapshot never replaces a newer one
+    private final Object writeLock = new Object();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "camera-store");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pendingSave;
+
+    public static synchronized CameraManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new CameraManager(context.getApplicationContext());
+        }
+        return instance;
+    }
 
-    public CameraManager(Context context) {
+    private CameraManager(Context context) {
         prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        storeFile = new File(context.getFilesDir(), STORE_FILE);
         gson = new Gson();
-        loadCameras();
+        // First on the store thread, so no save can run ahead of it
+        writer.execute(this::loadCameras);
+    }
+
+    /**
+     * Runs callback once the saved cameras are in: on the store thread, or
+     * straight away on the caller's if loading has already finished.
+     */
+    public void whenLoaded(Runnable callback) {
+        synchronized (this) {
+            if (loaded.getCount() > 0) {
+                loadCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
     }
 
     private void loadCameras() {
-        String json = prefs.getString(KEY_CAMERAS, null);
-        if (json != null) {
-            Type type = new TypeToken<List<OnvifCamera>>() {}.getType();
-            cameras = gson.fromJson(json, type);
+        List<OnvifCamera> stored = new ArrayList<>();
+        boolean migrated = false;
+        if (storeFile.exists()) {
+            try (Reader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(storeFile), StandardCharsets.UTF_8))) {
+                int[] skipped = {0};
+                CameraInventoryIO.readJsonLines(reader, gson, camera -> {
+                    // Unparseable lines come through as null; drop them rather than crash on every start
+                    if (camera != null) {
+                        stored.add(camera);
+                    } else {
+                        skipped[0]++;
+                    }
+                });
+                if (skipped[0] > 0) {
+                    Log.w(TAG, "Skipped " + skipped[0] + " unreadable line(s) in " + storeFile);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to load cameras: " + e.getMessage());
+            }
         } else {
-            cameras = new ArrayList<>();
+            String json = prefs.getString(KEY_CAMERAS, null);
+            if (json != null) {
+                Type type = new TypeToken<List<OnvifCamera>>() {}.getType();
+                List<OnvifCamera> saved = gson.fromJson(json, type);
+                if (saved != null) stored.addAll(saved);
+                migrated = true;
+            }
+        }
+
+        // Stores written before ids were UUIDs can repeat one for cameras created in the same millisecond
+        boolean reassigned = false;
+        Set<String> ids = new HashSet<>();
+        for (OnvifCamera camera : stored) {
+            if (camera.getId() == null || !ids.add(camera.getId())) {
+                camera.setId(UUID.randomUUID().toString());
+                ids.add(camera.getId());
+                reassigned = true;
+            }
+        }
+
+        List<Runnable> callbacks;
+        synchronized (this) {
+            // Cameras added before the store was in are kept, after the saved ones
+            List<OnvifCamera> early = cameras;
+            cameras = stored;
+            rebuildKeys();
+            for (OnvifCamera camera : early) {
+                if (!cameraExists(camera)) {
+                    cameras.add(camera);
+                    addKeys(camera);
+                }
+            }
+            loaded.countDown();
+            callbacks = new ArrayList<>(loadCallbacks);
+            loadCallbacks.clear();
+        }
+        if (migrated || reassigned) {
+            saveCameras();
+        }
+        if (migrated) {
+            prefs.edit().remove(KEY_CAMERAS).apply();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Writes the whole list to a temporary file and swaps it in, so a crash never
+     * leaves half a store. Blocks, until the store has been loaded too; call it
+     * from a background thread.
+     */
+    public void saveCameras() {
+        try {
+            // Writing before then would replace the store with just this session's cameras
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (writeLock) {
+            List<OnvifCamera> snapshot;
+            synchronized (this) {
+                if (pendingSave != null) {
+                    pendingSave.cancel(false);
+                    pendingSave = null;
+                }
+                snapshot = new ArrayList<>(cameras);
+            }
+            File temp = new File(storeFile.getPath() + ".tmp");
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+                CameraInventoryIO.writeJsonLines(snapshot, out, gson);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save cameras: " + e.getMessage());
+                temp.delete();
+                return;
+            }
+            if (!temp.renameTo(storeFile)) {
+                Log.w(TAG, "Failed to replace " + storeFile);
+            }
         }
     }
 
-    private void saveCameras() {
-        String json = gson.toJson(cameras);
-        prefs.edit().putString(KEY_CAMERAS, json).apply();
+    /** Starts a pending write now instead of after the delay, e.g. when a scan ends or the app is left. */
+    public synchronized void flush() {
+        if (pendingSave != null && pendingSave.cancel(false)) {
+            pendingSave = null;
+            writer.execute(this::saveCameras);
+        }
     }
 
-    public List<OnvifCamera> getCameras() {
+    /** Called with the lock held; changes until the write starts share it. */
+    private void scheduleSave() {
+        if (pendingSave == null) {
+            pendingSave = writer.schedule(this::saveCameras, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized List<OnvifCamera> getCameras() {
         return new ArrayList<>(cameras);
     }
 
-    public void addCamera(OnvifCamera camera) {
+    public synchronized void addCamera(OnvifCamera camera) {
         if (!cameraExists(camera)) {
             cameras.add(camera);
-            saveCameras();
+            addKeys(camera);
+            scheduleSave();
         }
     }
 
-    public void removeCamera(OnvifCamera camera) {
-        cameras.remove(camera);
-        saveCameras();
+    /**
+     * Adds the cameras that aren't already saved, including duplicates within
+     * the batch, and returns how many were added. Does not save; call
+     * saveCameras() once the whole import is in.
+     */
+    public synchronized int addCameras(List<OnvifCamera> batch) {
+        int added = 0;
+        for (OnvifCamera camera : batch) {
+            if (!cameraExists(camera)) {
+                cameras.add(camera);
+                addKeys(camera);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    public synchronized void updateCamera(OnvifCamera camera) {
+        int index = cameras.indexOf(camera);
+        if (index != -1) {
+            // Only this camera's keys change; the stored copy's are the ones it was indexed under
+            removeKeys(cameras.set(index, camera));
+            addKeys(camera);
+            scheduleSave();
+        }
     }
 
-    public void clearCameras() {
+    public synchronized void removeCamera(OnvifCamera camera) {
+        int index = cameras.indexOf(camera);
+        if (index != -1) {
+            removeKeys(cameras.remove(index));
+            scheduleSave();
+        }
+    }
+
+    public synchronized void clearCameras() {
         cameras.clear();
-        saveCameras();
+        rebuildKeys();
+        scheduleSave();
     }
 
-    public boolean cameraExists(OnvifCamera camera) {
-        for (OnvifCamera c : cameras) {
-            if (c.getRtspUrl() != null && c.getRtspUrl().equals(camera.getRtspUrl())) {
-                return true;
-            }
-            if (c.getIpAddress() != null && c.getIpAddress().equals(camera.getIpAddress())) {
-                return true;
-            }
+    public synchronized boolean cameraExists(OnvifCamera camera) {
+        return (camera.getRtspUrl() != null && rtspUrls.containsKey(camera.getRtspUrl()))
+            || (camera.getIpAddress() != null && ipAddresses.containsKey(camera.getIpAddress()));
+    }
+
+    private void addKeys(OnvifCamera camera) {
+        if (camera.getRtspUrl() != null) rtspUrls.merge(camera.getRtspUrl(), 1, Integer::sum);
+        if (camera.getIpAddress() != null) ipAddresses.merge(camera.getIpAddress(), 1, Integer::sum);
+    }
+
+    private void removeKeys(OnvifCamera camera) {
+        if (camera.getRtspUrl() != null) {
+            rtspUrls.computeIfPresent(camera.getRtspUrl(), (key, n) -> n > 1 ? n - 1 : null);
+        }
+        if (camera.getIpAddress() != null) {
+            ipAddresses.computeIfPresent(camera.getIpAddress(), (key, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    private void rebuildKeys() {
+        rtspUrls.clear();
+        ipAddresses.clear();
+        for (OnvifCamera camera : cameras) {
+            addKeys(camera);
         }
-        return false;
     }
 }
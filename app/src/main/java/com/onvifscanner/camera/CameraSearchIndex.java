@@ -0,0 +1,377 @@
+package com.onvifscanner.camera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory search over name, IP, manufacturer, model and RTSP host. Every
+ * field is split into lowercase tokens; the distinct tokens are sorted, each
+ * with its list of cameras, so a query term's matches are a binary-searched
+ * prefix range. Each query term must prefix-match some token of a camera.
+ *
+ * Typing usually extends the previous query, so then the previous results
+ * are re-checked instead, whichever is smaller. Searches run on one
+ * background thread and only the latest request's result is delivered.
+ *
+ * Results come back in a display order that is kept apart from the index:
+ * re-ranking the list (e.g. by activity) only re-sorts each result set, and
+ * the tokens are rebuilt only when the cameras themselves change.
+ */
+public class CameraSearchIndex {
+
+    public interface Callback {
+        void onResults(String query, List<OnvifCamera> results);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "camera-search");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong generation = new AtomicLong();
+
+    // Index state, only touched on the executor thread
+    private OnvifCamera[] cameras = new OnvifCamera[0];
+    private Map<String, Integer> positionOfId = new HashMap<>();
+    private String[][] cameraTokens = new String[0][];
+    private String[] tokens = new String[0];
+    // Cameras of tokens[i] are postings[postingStart[i]] up to postingStart[i + 1]
+    private int[] postingStart = new int[1];
+    private int[] postings = new int[0];
+    private int[] seen = new int[0];
+    private int stamp;
+    private String[] lastTerms;
+    private int[] lastResult;
+    private List<OnvifCamera> pending;
+    // Display order: rank[i] is where cameras[i] goes, ordered is every camera in that order
+    private List<OnvifCamera> order;
+    private List<OnvifCamera> pendingOrder;
+    private boolean orderStale;
+    private int[] rank = new int[0];
+    private OnvifCamera[] ordered = new OnvifCamera[0];
+    // Full index lookups, as opposed to answers narrowed from the previous result; for tests
+    int lookups;
+
+    /**
+     * Replaces the indexed cameras. The index is rebuilt by the next search
+     * that runs, so bursts of updates (e.g. during a scan) cost one build, and
+     * not at all if the list holds the same camera objects as before.
+     */
+    public void setCameras(List<OnvifCamera> list) {
+        List<OnvifCamera> copy = new ArrayList<>(list);
+        executor.execute(() -> pending = copy);
+    }
+
+    /**
+     * Sets the order results are returned in, by camera id. Indexed cameras
+     * missing from it follow the rest in index order. Doesn't touch the index.
+     */
+    public void setOrder(List<OnvifCamera> list) {
+        List<OnvifCamera> copy = new ArrayList<>(list);
+        executor.execute(() -> pendingOrder = copy);
+    }
+
+    /**
+     * Runs the query in the background. Earlier searches that haven't started
+     * or finished by then are dropped; the callback fires on the search thread.
+     */
+    public void search(String query, Callback callback) {
+        long id = generation.incrementAndGet();
+        executor.execute(() -> {
+            if (generation.get() != id) return;
+            List<OnvifCamera> results = searchNow(query);
+            if (generation.get() == id) {
+                callback.onResults(query, results);
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    void build(List<OnvifCamera> cameraList) {
+        int n = cameraList.size();
+        cameras = cameraList.toArray(new OnvifCamera[0]);
+        cameraTokens = new String[n][];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            cameraTokens[i] = tokenize(cameras[i]);
+            total += cameraTokens[i].length;
+        }
+
+        Map<String, int[]> byToken = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            for (String token : cameraTokens[i]) {
+                // [count, camera...], grown by doubling
+                int[] list = byToken.get(token);
+                if (list == null) {
+                    list = new int[4];
+                    byToken.put(token, list);
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    byToken.put(token, list);
+                }
+                list[++list[0]] = i;
+            }
+        }
+
+        tokens = byToken.keySet().toArray(new String[0]);
+        Arrays.sort(tokens);
+        positionOfId = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            positionOfId.put(cameras[i].getId(), i);
+        }
+        postingStart = new int[tokens.length + 1];
+        postings = new int[total];
+        int k = 0;
+        for (int t = 0; t < tokens.length; t++) {
+            int[] list = byToken.get(tokens[t]);
+            postingStart[t] = k;
+            System.arraycopy(list, 1, postings, k, list[0]);
+            k += list[0];
+        }
+        postingStart[tokens.length] = k;
+        seen = new int[n];
+        stamp = 0;
+        lastTerms = null;
+        lastResult = null;
+        orderStale = true;
+    }
+
+    /** True if list holds exactly the indexed camera objects, in any order. */
+    private boolean isIndexed(List<OnvifCamera> list) {
+        if (list.size() != cameras.length) return false;
+        for (OnvifCamera camera : list) {
+            Integer position = positionOfId.get(camera.getId());
+            if (position == null || cameras[position] != camera) return false;
+        }
+        return true;
+    }
+
+    private void applyOrder() {
+        int n = cameras.length;
+        rank = new int[n];
+        ordered = new OnvifCamera[n];
+        Arrays.fill(rank, -1);
+        int next = 0;
+        if (order != null) {
+            for (OnvifCamera camera : order) {
+                Integer position = positionOfId.get(camera.getId());
+                if (position != null && rank[position] == -1) {
+                    rank[position] = next;
+                    ordered[next++] = cameras[position];
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (rank[i] == -1) {
+                rank[i] = next;
+                ordered[next++] = cameras[i];
+            }
+        }
+        orderStale = false;
+    }
+
+    List<OnvifCamera> searchNow(String query) {
+        if (pending != null) {
+            if (!isIndexed(pending)) {
+                build(pending);
+            }
+            pending = null;
+        }
+        if (pendingOrder != null) {
+            order = pendingOrder;
+            pendingOrder = null;
+            orderStale = true;
+        }
+        if (orderStale) {
+            applyOrder();
+        }
+        String[] terms = terms(query);
+        int[] result;
+        if (terms.length == 0) {
+            result = null;
+        } else if (lastResult != null && Arrays.equals(lastTerms, terms)) {
+            result = lastResult;
+        } else if (lastResult != null && narrows(lastTerms, terms)
+                && lastResult.length <= postingCount(terms[terms.length - 1])) {
+            // Earlier terms are unchanged, so only the last old term onwards needs checking
+            result = filter(lastResult, lastResult.length, terms, lastTerms.length - 1);
+        } else {
+            result = lookup(terms);
+        }
+        lastTerms = terms;
+        lastResult = result;
+
+        if (result == null) {
+            return new ArrayList<>(Arrays.asList(ordered));
+        }
+        // Sort only the matches, on (display rank, index position) packed into one long
+        long[] keys = new long[result.length];
+        for (int i = 0; i < result.length; i++) {
+            keys[i] = (long) rank[result[i]] << 32 | result[i];
+        }
+        Arrays.sort(keys);
+        List<OnvifCamera> list = new ArrayList<>(result.length);
+        for (long key : keys) {
+            list.add(cameras[(int) key]);
+        }
+        return list;
+    }
+
+    private int[] lookup(String[] terms) {
+        lookups++;
+        // Start from the term with the fewest postings, verify the rest per camera
+        int best = 0;
+        int bestCount = Integer.MAX_VALUE;
+        for (int t = 0; t < terms.length; t++) {
+            int count = postingCount(terms[t]);
+            if (count < bestCount) {
+                best = t;
+                bestCount = count;
+            }
+        }
+        int bestFrom = postingStart[lowerBound(terms[best])];
+        int bestTo = postingStart[upperBound(terms[best])];
+
+        if (++stamp == 0) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        int[] candidates = new int[Math.min(bestTo - bestFrom, cameras.length)];
+        int count = 0;
+        for (int i = bestFrom; i < bestTo; i++) {
+            int camera = postings[i];
+            if (seen[camera] != stamp) {
+                seen[camera] = stamp;
+                candidates[count++] = camera;
+            }
+        }
+        Arrays.sort(candidates, 0, count);
+
+        String[] rest = new String[terms.length - 1];
+        for (int t = 0, r = 0; t < terms.length; t++) {
+            if (t != best) rest[r++] = terms[t];
+        }
+        return filter(candidates, count, rest, 0);
+    }
+
+    private int[] filter(int[] candidates, int count, String[] terms, int firstTerm) {
+        int[] out = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            String[] own = cameraTokens[candidates[i]];
+            boolean all = true;
+            for (int t = firstTerm; t < terms.length && all; t++) {
+                all = matches(own, terms[t]);
+            }
+            if (all) out[n++] = candidates[i];
+        }
+        return n == count ? out : Arrays.copyOf(out, n);
+    }
+
+    private static boolean matches(String[] tokens, String term) {
+        for (String token : tokens) {
+            if (token.startsWith(term)) return true;
+        }
+        return false;
+    }
+
+    /** Postings (camera-token pairs) under a prefix; an upper bound on its matching cameras. */
+    private int postingCount(String prefix) {
+        return postingStart[upperBound(prefix)] - postingStart[lowerBound(prefix)];
+    }
+
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = tokens.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens[mid].compareTo(key) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /** First token past every token starting with prefix. */
+    private int upperBound(String prefix) {
+        int lo = lowerBound(prefix);
+        int hi = tokens.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens[mid].startsWith(prefix)) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /** True if next only extends previous: same leading terms, last one lengthened, maybe more added. */
+    private static boolean narrows(String[] previous, String[] next) {
+        if (previous == null || previous.length == 0 || next.length < previous.length) return false;
+        int last = previous.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (!previous[i].equals(next[i])) return false;
+        }
+        return next[last].startsWith(previous[last]);
+    }
+
+    private static String[] terms(String query) {
+        String trimmed = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+
+    /** Whole words plus their alphanumeric parts, so "192.168" and "door" both hit. */
+    static String[] tokenize(OnvifCamera camera) {
+        Set<String> tokens = new LinkedHashSet<>();
+        addTokens(tokens, camera.getName());
+        addTokens(tokens, camera.getIpAddress());
+        addTokens(tokens, camera.getManufacturer());
+        addTokens(tokens, camera.getModel());
+        addTokens(tokens, rtspHost(camera.getRtspUrl()));
+        return tokens.toArray(new String[0]);
+    }
+
+    private static void addTokens(Set<String> tokens, String value) {
+        if (value == null || value.isEmpty()) return;
+        String lower = value.toLowerCase(Locale.ROOT);
+        int length = lower.length();
+        int wordStart = -1;
+        int partStart = -1;
+        // Scan by hand; regex splitting dominated index build time at tens of thousands of cameras
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? lower.charAt(i) : ' ';
+            boolean space = Character.isWhitespace(c);
+            boolean alphanumeric = Character.isLetterOrDigit(c);
+            if (!space && wordStart == -1) wordStart = i;
+            if (alphanumeric && partStart == -1) partStart = i;
+            if (!alphanumeric && partStart != -1) {
+                tokens.add(lower.substring(partStart, i));
+                partStart = -1;
+            }
+            if (space && wordStart != -1) {
+                tokens.add(lower.substring(wordStart, i));
+                wordStart = -1;
+            }
+        }
+    }
+
+    private static String rtspHost(String url) {
+        if (url == null) return null;
+        int start = url.indexOf("://");
+        start = start == -1 ? 0 : start + 3;
+        int end = url.indexOf('/', start);
+        String authority = end == -1 ? url.substring(start) : url.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at != -1) authority = authority.substring(at + 1);
+        int colon = authority.lastIndexOf(':');
+        return colon != -1 && authority.indexOf(']') < colon ? authority.substring(0, colon) : authority;
+    }
+}
@@ -1,6 +1,9 @@
 package com.onvifscanner.camera;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 public class OnvifCamera implements Serializable {
     private String id;
@@ -13,9 +16,12 @@ public class OnvifCamera implements Serializable {
     private String model;
     private String manufacturer;
     private boolean isManual;
+    private List<StreamProfile> profiles;
 
     public OnvifCamera() {
-        this.id = String.valueOf(System.currentTimeMillis());
+        // Unique even for cameras created in the same millisecond, e.g. a discovery burst;
+        // the store, search index, event engine and triage are all keyed on it
+        this.id = UUID.randomUUID().toString();
         this.port = 80;
         this.username = "";
         this.password = "";
@@ -52,6 +58,12 @@ public class OnvifCamera implements Serializable {
     public boolean isManual() { return isManual; }
     public void setManual(boolean manual) { isManual = manual; }
 
+    /** ONVIF media profiles with their stream URIs; empty until fetched from the device. */
+    public List<StreamProfile> getProfiles() {
+        return profiles != null ? profiles : new ArrayList<>();
+    }
+    public void setProfiles(List<StreamProfile> profiles) { this.profiles = new ArrayList<>(profiles); }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
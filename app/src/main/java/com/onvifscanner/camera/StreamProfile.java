@@ -0,0 +1,55 @@
+package com.onvifscanner.camera;
+
+import java.io.Serializable;
+
+public class StreamProfile implements Serializable {
+    private String token;
+    private String name;
+    private String encoding;
+    private int width;
+    private int height;
+    private int bitrateKbps;
+    private int frameRate;
+    private String rtspUrl;
+
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getEncoding() { return encoding; }
+    public void setEncoding(String encoding) { this.encoding = encoding; }
+
+    public int getWidth() { return width; }
+    public void setWidth(int width) { this.width = width; }
+
+    public int getHeight() { return height; }
+    public void setHeight(int height) { this.height = height; }
+
+    public int getBitrateKbps() { return bitrateKbps; }
+    public void setBitrateKbps(int bitrateKbps) { this.bitrateKbps = bitrateKbps; }
+
+    public int getFrameRate() { return frameRate; }
+    public void setFrameRate(int frameRate) { this.frameRate = frameRate; }
+
+    public String getRtspUrl() { return rtspUrl; }
+    public void setRtspUrl(String rtspUrl) { this.rtspUrl = rtspUrl; }
+
+    public long getPixels() {
+        return (long) width * height;
+    }
+
+    /** Configured bitrate, or a rough estimate from resolution and frame rate when the camera reports none. */
+    public int getExpectedKbps() {
+        if (bitrateKbps > 0) return bitrateKbps;
+        int fps = frameRate > 0 ? frameRate : 25;
+        // ~0.1 bit per pixel per frame is typical for H.264 surveillance streams
+        return (int) Math.max(256, getPixels() * fps / 10_000);
+    }
+
+    public String describe() {
+        return (name != null ? name : token) + " " + width + "x" + height
+            + (encoding != null ? " " + encoding : "");
+    }
+}
@@ -0,0 +1,141 @@
+package com.onvifscanner.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks which of a camera's stream profiles to play. The view size sets a
+ * ceiling (no point decoding 4K into a thumbnail-sized view); a stall moves
+ * playback down to the largest profile the measured throughput can carry.
+ * Configured bitrates are only caps (VBR streams of a quiet scene send far
+ * less), so low throughput alone doesn't trigger a switch. For the same
+ * reason the current stream's rate says nothing about room for the next
+ * profile, so stepping back up is a trial: tried after a stable period, with
+ * a growing back-off after failures because every switch costs an RTSP
+ * reconnect, and rolled back if it stalls before it has proven itself.
+ */
+public class StreamProfileSelector {
+    // Headroom left when sizing a profile against measured throughput
+    private static final double THROUGHPUT_HEADROOM = 0.8;
+    private static final long UPSWITCH_STABLE_MS = 30_000;
+    private static final long TRIAL_MS = 20_000;
+    private static final long MIN_BACKOFF_MS = 60_000;
+    private static final long MAX_BACKOFF_MS = 10 * 60_000;
+
+    private final List<StreamProfile> ladder;
+    private int viewCap;
+    private int current;
+    private long lastKbps;
+    private long stableSince;
+    private long backoffMs = MIN_BACKOFF_MS;
+    private long upBlockedUntil;
+    // Profile a trial step-up came from, or -1 when no trial is running
+    private int trialFrom = -1;
+    private long trialUntil;
+
+    /** Profiles without a stream URI are ignored; the rest are ordered by resolution then bitrate. */
+    public StreamProfileSelector(List<StreamProfile> profiles) {
+        ladder = new ArrayList<>();
+        for (StreamProfile profile : profiles) {
+            if (profile.getRtspUrl() != null && !"JPEG".equalsIgnoreCase(profile.getEncoding())) {
+                ladder.add(profile);
+            }
+        }
+        ladder.sort((a, b) -> a.getPixels() != b.getPixels()
+            ? Long.compare(a.getPixels(), b.getPixels())
+            : Integer.compare(a.getExpectedKbps(), b.getExpectedKbps()));
+        viewCap = ladder.size() - 1;
+        current = viewCap;
+    }
+
+    public boolean isEmpty() {
+        return ladder.isEmpty();
+    }
+
+    public StreamProfile getCurrent() {
+        return ladder.isEmpty() ? null : ladder.get(current);
+    }
+
+    /**
+     * Updates the rendering size. Returns the profile to switch to when the
+     * current one is larger than the view needs, otherwise null.
+     */
+    public StreamProfile onViewSize(int width, int height, long nowMs) {
+        if (ladder.isEmpty() || width <= 0 || height <= 0) return null;
+        long viewPixels = (long) width * height;
+        viewCap = ladder.size() - 1;
+        for (int i = 0; i < ladder.size(); i++) {
+            if (ladder.get(i).getPixels() >= viewPixels) {
+                viewCap = i;
+                break;
+            }
+        }
+        if (current > viewCap) {
+            return switchTo(viewCap, nowMs);
+        }
+        return null;
+    }
+
+    /**
+     * Feeds one throughput sample taken while the current profile played.
+     * Returns the profile to try one step up, or null to stay. The sample
+     * only sizes the drop on a later stall; it can't exceed what the current
+     * stream sends, so it doesn't gate stepping up.
+     */
+    public StreamProfile onThroughput(long receivedKbps, long nowMs) {
+        if (ladder.isEmpty()) return null;
+        lastKbps = receivedKbps;
+        if (stableSince == 0) stableSince = nowMs;
+        if (trialFrom >= 0 && nowMs >= trialUntil) {
+            // Played through the trial without a stall; keep it
+            trialFrom = -1;
+        }
+
+        if (trialFrom < 0 && current < viewCap && nowMs >= upBlockedUntil
+                && nowMs - stableSince >= UPSWITCH_STABLE_MS) {
+            int from = current;
+            StreamProfile next = switchTo(current + 1, nowMs);
+            trialFrom = from;
+            trialUntil = nowMs + TRIAL_MS;
+            return next;
+        }
+        return null;
+    }
+
+    /**
+     * The player rebuffered. During a trial step-up, go back to the profile
+     * it came from; otherwise drop to the largest lower profile that fits the
+     * last measured throughput (at least one step). Either way, hold off
+     * climbing back.
+     */
+    public StreamProfile onStall(long nowMs) {
+        if (ladder.isEmpty() || current == 0) return null;
+        int target = 0;
+        if (trialFrom >= 0 && nowMs < trialUntil) {
+            // The previous profile played fine; the trial's own samples don't size the link
+            target = Math.min(trialFrom, current - 1);
+        } else {
+            for (int i = current - 1; i > 0; i--) {
+                if (lastKbps <= 0 || ladder.get(i).getExpectedKbps() <= lastKbps * THROUGHPUT_HEADROOM) {
+                    target = i;
+                    break;
+                }
+            }
+        }
+        upBlockedUntil = nowMs + backoffMs;
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        return switchTo(target, nowMs);
+    }
+
+    private StreamProfile switchTo(int index, long nowMs) {
+        if (index == current) return null;
+        if (index > current && nowMs - stableSince >= UPSWITCH_STABLE_MS * 4) {
+            // Long stretch without trouble since the last failure; forgive it
+            backoffMs = MIN_BACKOFF_MS;
+        }
+        current = index;
+        stableSince = nowMs;
+        trialFrom = -1;
+        return ladder.get(current);
+    }
+}
@@ -0,0 +1,107 @@
+package com.onvifscanner.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
+
+/**
+ * Socket factory whose sockets add every byte they read to one counter.
+ * Handed to a player's RTSP source with RTP forced onto the RTSP connection,
+ * it measures what that stream alone receives.
+ */
+public class CountingSocketFactory extends SocketFactory {
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new CountingSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return new CountingSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return new CountingSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return new CountingSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        return new CountingSocket(address, port, localAddress, localPort);
+    }
+
+    private class CountingSocket extends Socket {
+        private InputStream in;
+
+        CountingSocket() {
+        }
+
+        CountingSocket(String host, int port) throws IOException {
+            super(host, port);
+        }
+
+        CountingSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            super(host, port, localHost, localPort);
+        }
+
+        CountingSocket(InetAddress host, int port) throws IOException {
+            super(host, port);
+        }
+
+        CountingSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            super(address, port, localAddress, localPort);
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new CountingInputStream(super.getInputStream());
+            }
+            return in;
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) bytesRead.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) bytesRead.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) bytesRead.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.onvifscanner.network;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed HTTP Digest challenge (RFC 7616) that can sign any number of
+ * requests until the server declares its nonce stale.
+ */
+class DigestChallenge {
+    private static final Pattern PARAM = Pattern.compile("(\\w+)\\s*=\\s*(\"([^\"]*)\"|[^,\\s]*)");
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    final String realm;
+    final String nonce;
+    final String opaque;
+    final String algorithm;
+    final boolean qopAuth;
+    final boolean stale;
+
+    private DigestChallenge(Map<String, String> params) {
+        realm = params.get("realm");
+        nonce = params.get("nonce");
+        opaque = params.get("opaque");
+        algorithm = params.containsKey("algorithm") ? params.get("algorithm") : "MD5";
+        String qop = params.get("qop");
+        qopAuth = qop != null && qop.toLowerCase(Locale.US).contains("auth");
+        stale = "true".equalsIgnoreCase(params.get("stale"));
+    }
+
+    /** Returns null unless the header is a Digest challenge. */
+    static DigestChallenge parse(String header) {
+        if (header == null || !header.regionMatches(true, 0, "Digest", 0, 6)) return null;
+        Map<String, String> params = new HashMap<>();
+        Matcher m = PARAM.matcher(header.substring(6));
+        while (m.find()) {
+            String value = m.group(3) != null ? m.group(3) : m.group(2);
+            params.put(m.group(1).toLowerCase(Locale.US), value);
+        }
+        return params.containsKey("nonce") ? new DigestChallenge(params) : null;
+    }
+
+    String authorization(String method, String uri, String username, String password, int nonceCount) {
+        String cnonce = Long.toHexString(RANDOM.nextLong());
+        String nc = String.format(Locale.US, "%08x", nonceCount);
+
+        String ha1 = hash(username + ":" + realm + ":" + password);
+        if (algorithm.toLowerCase(Locale.US).endsWith("-sess")) {
+            ha1 = hash(ha1 + ":" + nonce + ":" + cnonce);
+        }
+        String ha2 = hash(method + ":" + uri);
+        String response = qopAuth
+            ? hash(ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":auth:" + ha2)
+            : hash(ha1 + ":" + nonce + ":" + ha2);
+
+        StringBuilder sb = new StringBuilder("Digest ");
+        sb.append("username=\"").append(username).append("\", ");
+        sb.append("realm=\"").append(realm).append("\", ");
+        sb.append("nonce=\"").append(nonce).append("\", ");
+        sb.append("uri=\"").append(uri).append("\", ");
+        sb.append("algorithm=").append(algorithm).append(", ");
+        if (qopAuth) {
+            sb.append("qop=auth, nc=").append(nc).append(", cnonce=\"").append(cnonce).append("\", ");
+        }
+        if (opaque != null) {
+            sb.append("opaque=\"").append(opaque).append("\", ");
+        }
+        sb.append("response=\"").append(response).append("\"");
+        return sb.toString();
+    }
+
+    private String hash(String value) {
+        String name = algorithm.toUpperCase(Locale.US).startsWith("SHA-256") ? "SHA-256" : "MD5";
+        try {
+            byte[] digest = MessageDigest.getInstance(name).digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package com.onvifscanner.network;
+
+import android.util.Log;
+import android.util.Xml;
+
+import com.onvifscanner.camera.CameraEvent;
+import com.onvifscanner.camera.OnvifCamera;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ONVIF event subscriptions for many cameras on a fixed thread budget.
+ *
+ * Each camera gets a PullPoint subscription. All PullMessages long-polls are
+ * multiplexed over non-blocking keep-alive sockets on a single selector thread,
+ * so an idle camera costs a socket, not a thread. A small worker pool parses
+ * responses with a streaming pull parser and queues the next poll. The blocking
+ * SOAP calls that create, renew and cancel subscriptions run on a separate
+ * bounded pool, and failing cameras retry with exponential backoff, so a few
+ * unreachable cameras can't hold up events and renewals for the healthy ones.
+ */
+public class EventEngine {
+    private static final String TAG = "EventEngine";
+
+    private static final int WORKER_THREADS = 2;
+    private static final int CONTROL_THREADS = 4;
+    private static final String PULL_TIMEOUT = "PT20S";
+    private static final long PULL_TIMEOUT_MS = 20_000;
+    private static final long PULL_GRACE_MS = 10_000;
+    private static final int MESSAGE_LIMIT = 32;
+    private static final String REQUESTED_LIFETIME = "PT120S";
+    private static final long DEFAULT_LIFETIME_MS = 60_000;
+    private static final long RETRY_BASE_MS = 5_000;
+    private static final long RETRY_MAX_MS = 5 * 60_000;
+    private static final long REPOLL_DELAY_MS = 1_000;
+    private static final int MAX_POLL_FAILURES = 3;
+    private static final long SELECT_INTERVAL_MS = 1_000;
+
+    private static final String CREATE_PULL_POINT =
+        "<tev:CreatePullPointSubscription>" +
+        "<tev:InitialTerminationTime>" + REQUESTED_LIFETIME + "</tev:InitialTerminationTime>" +
+        "</tev:CreatePullPointSubscription>";
+    private static final String PULL_MESSAGES =
+        "<tev:PullMessages><tev:Timeout>" + PULL_TIMEOUT + "</tev:Timeout>" +
+        "<tev:MessageLimit>" + MESSAGE_LIMIT + "</tev:MessageLimit></tev:PullMessages>";
+    private static final String RENEW =
+        "<wsnt:Renew><wsnt:TerminationTime>" + REQUESTED_LIFETIME + "</wsnt:TerminationTime></wsnt:Renew>";
+    private static final String UNSUBSCRIBE = "<wsnt:Unsubscribe/>";
+
+    private static final String PULL_ACTION =
+        "http://www.onvif.org/ver10/events/wsdl/PullPointSubscription/PullMessagesRequest";
+    private static final String RENEW_ACTION =
+        "http://docs.oasis-open.org/wsn/bw-2/SubscriptionManager/RenewRequest";
+    private static final String UNSUBSCRIBE_ACTION =
+        "http://docs.oasis-open.org/wsn/bw-2/SubscriptionManager/UnsubscribeRequest";
+
+    private static final Pattern XSD_DATE_TIME = Pattern.compile(
+        "(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2}):(\\d{2})(\\.\\d+)?(Z|[+-]\\d{2}:\\d{2})?");
+
+    public interface Listener {
+        /** Called on a worker thread. */
+        void onCameraEvent(OnvifCamera camera, CameraEvent event);
+    }
+
+    private final Listener listener;
+    private final OnvifHttpClient http;
+    private final Supplier<XmlPullParser> parsers;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // Replaced by every start(); a selector thread still winding down from the last run keeps its own
+    private volatile ConcurrentLinkedQueue<Subscription> pollQueue = new ConcurrentLinkedQueue<>();
+    private volatile ConcurrentLinkedQueue<Subscription> closeQueue = new ConcurrentLinkedQueue<>();
+    private volatile ScheduledThreadPoolExecutor workers;
+    private volatile ExecutorService control;
+    private volatile Selector selector;
+    private volatile boolean running;
+    private long retryBaseMs = RETRY_BASE_MS;
+    private long retryMaxMs = RETRY_MAX_MS;
+
+    public EventEngine(Listener listener) {
+        this(listener, OnvifHttpClient.shared());
+    }
+
+    public EventEngine(Listener listener, OnvifHttpClient http) {
+        this(listener, http, Xml::newPullParser);
+    }
+
+    /** Local unit tests pass their own parser; android.util.Xml is only a stub off the device. */
+    EventEngine(Listener listener, OnvifHttpClient http, Supplier<XmlPullParser> parsers) {
+        this.listener = listener;
+        this.http = http;
+        this.parsers = parsers;
+    }
+
+    public synchronized void start(List<OnvifCamera> cameras) {
+        if (running) {
+            update(cameras);
+            return;
+        }
+        Selector opened;
+        try {
+            opened = Selector.open();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open selector", e);
+            return;
+        }
+        ConcurrentLinkedQueue<Subscription> polls = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Subscription> closes = new ConcurrentLinkedQueue<>();
+        pollQueue = polls;
+        closeQueue = closes;
+        selector = opened;
+        running = true;
+        workers = new ScheduledThreadPoolExecutor(WORKER_THREADS);
+        // Pending retries and re-polls belong to this run only; don't let them fire after stop()
+        workers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        control = Executors.newFixedThreadPool(CONTROL_THREADS);
+        Thread selectorThread = new Thread(() -> selectorLoop(opened, polls, closes), "onvif-events");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        update(cameras);
+    }
+
+    /**
+     * Brings the subscriptions in line with the camera list: new cameras are
+     * subscribed and removed ones cancelled, while the rest keep running.
+     */
+    public synchronized void update(List<OnvifCamera> cameras) {
+        if (!running) return;
+        Set<String> wanted = new HashSet<>();
+        for (OnvifCamera camera : cameras) {
+            if (camera.getIpAddress() != null && !camera.getIpAddress().isEmpty()) {
+                wanted.add(camera.getId());
+            }
+        }
+        Set<String> current = new HashSet<>();
+        for (Subscription sub : subscriptions) {
+            if (wanted.contains(sub.camera.getId())) {
+                current.add(sub.camera.getId());
+            } else {
+                subscriptions.remove(sub);
+                cancel(sub);
+            }
+        }
+        int added = 0;
+        for (OnvifCamera camera : cameras) {
+            if (!wanted.contains(camera.getId()) || !current.add(camera.getId())) continue;
+            Subscription sub = new Subscription(camera, http);
+            subscriptions.add(sub);
+            control.execute(() -> subscribe(sub));
+            added++;
+        }
+        Log.d(TAG, "Subscribing to events on " + added + " more cameras, " + subscriptions.size() + " total");
+    }
+
+    /**
+     * Cancels every subscription and returns without waiting, so it is safe on
+     * the main thread. The selector thread sees the flag on the wakeup and
+     * closes its own sockets; a start() meanwhile gets a fresh selector.
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        selector.wakeup();
+
+        for (Subscription sub : subscriptions) {
+            cancel(sub);
+        }
+        // Queued subscribes see the cancelled flag and return; unsubscribes still go out
+        control.shutdown();
+        workers.shutdownNow();
+        subscriptions.clear();
+    }
+
+    /** Package-private for tests, which can't wait out real retry delays. */
+    synchronized void setRetryDelays(long baseMs, long maxMs) {
+        retryBaseMs = baseMs;
+        retryMaxMs = maxMs;
+    }
+
+    private void cancel(Subscription sub) {
+        sub.cancelled = true;
+        if (sub.renewTask != null) sub.renewTask.cancel(false);
+        if (running) {
+            closeQueue.add(sub);
+            selector.wakeup();
+        }
+        // Best effort: let the camera free its subscription slot now rather than at expiry
+        if (sub.address != null) {
+            runControl(() -> unsubscribe(sub));
+        }
+    }
+
+    // ---- Worker side ----
+
+    private void subscribe(Subscription sub) {
+        if (!running || sub.cancelled) return;
+        try {
+            String eventsUrl = sub.device.getEventsUrl();
+            if (eventsUrl == null) {
+                Log.d(TAG, sub.camera.getIpAddress() + " has no event service");
+                return;
+            }
+            String xml = sub.device.call(eventsUrl, CREATE_PULL_POINT);
+            String reference = SoapXml.section(xml, "SubscriptionReference");
+            String address = reference != null ? SoapXml.element(reference, "Address") : null;
+            if (address == null) {
+                throw new IOException("No subscription reference");
+            }
+            sub.address = address;
+            sub.url = new URL(address);
+            if (sub.cancelled) {
+                // Cancelled while the call was in flight; give the slot straight back
+                unsubscribe(sub);
+                return;
+            }
+            if (!"http".equalsIgnoreCase(sub.url.getProtocol())) {
+                // Polls go over plain selector sockets; retrying would only fail the same way
+                Log.w(TAG, sub.camera.getIpAddress() + " offers events only at " + address
+                    + ", which this engine can't poll");
+                unsubscribe(sub);
+                sub.address = null;
+                return;
+            }
+            String username = sub.camera.getUsername();
+            if (username != null && !username.isEmpty()) {
+                // Here on the control pool, so building poll envelopes on a worker never waits for it
+                http.syncClock(sub.url);
+            }
+            sub.failures = 0;
+            sub.retries = 0;
+            scheduleRenew(sub, xml);
+            enqueuePoll(sub, sub.epoch.get());
+        } catch (IOException e) {
+            long delay = retryDelay(sub);
+            Log.w(TAG, "Subscribe failed for " + sub.camera.getIpAddress() + ": " + e.getMessage()
+                + ", retrying in " + delay + " ms");
+            scheduleControl(() -> subscribe(sub), delay);
+        }
+    }
+
+    private void renew(Subscription sub) {
+        if (!running || sub.cancelled) return;
+        int epoch = sub.epoch.get();
+        try {
+            String xml = call(sub, RENEW_ACTION, RENEW);
+            scheduleRenew(sub, xml);
+        } catch (IOException e) {
+            Log.w(TAG, "Renew failed for " + sub.camera.getIpAddress() + ", resubscribing");
+            resubscribe(sub, epoch);
+        }
+    }
+
+    private void unsubscribe(Subscription sub) {
+        try {
+            call(sub, UNSUBSCRIBE_ACTION, UNSUBSCRIBE);
+        } catch (IOException e) {
+            Log.d(TAG, "Unsubscribe failed for " + sub.camera.getIpAddress() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the subscription, unless another failure already did so since
+     * epoch. A PullMessages may still be waiting on the old one: its socket is
+     * closed and whatever it returns is dropped, so it can't be read as the
+     * answer to the new subscription's first poll.
+     */
+    private void resubscribe(Subscription sub, int epoch) {
+        if (!sub.epoch.compareAndSet(epoch, epoch + 1)) return;
+        if (sub.renewTask != null) sub.renewTask.cancel(false);
+        sub.address = null;
+        if (running) {
+            closeQueue.add(sub);
+            selector.wakeup();
+        }
+        scheduleControl(() -> subscribe(sub), retryDelay(sub));
+    }
+
+    /** Exponential per camera, with jitter so cameras that failed together don't retry together. */
+    private long retryDelay(Subscription sub) {
+        long delay = Math.min(retryMaxMs, retryBaseMs << Math.min(sub.retries++, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private String call(Subscription sub, String action, String body) throws IOException {
+        return sub.device.call(sub.address, addressingHeader(action, sub.address), body);
+    }
+
+    private void scheduleRenew(Subscription sub, String response) {
+        long current = parseDateTime(SoapXml.element(response, "CurrentTime"));
+        long termination = parseDateTime(SoapXml.element(response, "TerminationTime"));
+        long lifetime = current > 0 && termination > current ? termination - current : DEFAULT_LIFETIME_MS;
+        // Renew with a fifth of the lifetime to spare for slow or lossy links
+        sub.renewTask = scheduleControl(() -> renew(sub), lifetime * 4 / 5);
+    }
+
+    /** Runs on workers; the clock for sub.url was synced by subscribe(), so this doesn't block. */
+    private void enqueuePoll(Subscription sub, int epoch) {
+        if (!running || sub.cancelled || sub.address == null || sub.epoch.get() != epoch) return;
+        OnvifCamera camera = sub.camera;
+        byte[] body = http.envelope(sub.url, addressingHeader(PULL_ACTION, sub.address), PULL_MESSAGES,
+            camera.getUsername(), camera.getPassword());
+
+        String path = sub.url.getFile().isEmpty() ? "/" : sub.url.getFile();
+        StringBuilder head = new StringBuilder();
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(sub.url.getAuthority()).append("\r\n");
+        head.append("Content-Type: ").append(OnvifHttpClient.SOAP_CONTENT_TYPE).append("\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: keep-alive\r\n");
+        synchronized (sub) {
+            if (sub.challenge != null) {
+                head.append("Authorization: ").append(sub.challenge.authorization("POST", path,
+                    camera.getUsername(), camera.getPassword(), ++sub.nonceCount)).append("\r\n");
+            }
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer request = ByteBuffer.allocate(headBytes.length + body.length);
+        request.put(headBytes).put(body).flip();
+        sub.request = request;
+        sub.requestEpoch = epoch;
+
+        pollQueue.add(sub);
+        selector.wakeup();
+    }
+
+    private void handleResponse(Subscription sub, int epoch, int code, String challengeHeader, byte[] body) {
+        // A poll from before a resubscribe says nothing about the new subscription
+        if (!running || sub.cancelled || sub.epoch.get() != epoch) return;
+        if (code == 401 && challengeHeader != null) {
+            DigestChallenge next = DigestChallenge.parse(challengeHeader);
+            boolean retry;
+            synchronized (sub) {
+                retry = next != null && (sub.challenge == null || next.stale || !next.nonce.equals(sub.challenge.nonce));
+                sub.challenge = next;
+                sub.nonceCount = 0;
+            }
+            if (retry) {
+                enqueuePoll(sub, epoch);
+                return;
+            }
+        }
+        if (code != 200) {
+            // Usually an expired or unknown subscription
+            Log.w(TAG, "PullMessages returned " + code + " for " + sub.camera.getIpAddress());
+            resubscribe(sub, epoch);
+            return;
+        }
+
+        sub.failures = 0;
+        try {
+            for (CameraEvent event : parseNotifications(sub.camera, body, parsers.get())) {
+                listener.onCameraEvent(sub.camera, event);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not parse events from " + sub.camera.getIpAddress() + ": " + e.getMessage());
+        }
+        enqueuePoll(sub, epoch);
+    }
+
+    private void pollFailed(Subscription sub, int epoch) {
+        if (!running || sub.cancelled || sub.epoch.get() != epoch) return;
+        if (++sub.failures <= MAX_POLL_FAILURES) {
+            schedule(() -> enqueuePoll(sub, epoch), REPOLL_DELAY_MS);
+        } else {
+            resubscribe(sub, epoch);
+        }
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        if (!running) return null;
+        try {
+            return workers.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // Rejected during shutdown
+            return null;
+        }
+    }
+
+    /** Timers live on the worker pool; the blocking call itself is handed to the control pool. */
+    private ScheduledFuture<?> scheduleControl(Runnable task, long delayMs) {
+        return schedule(() -> runControl(task), delayMs);
+    }
+
+    private void runControl(Runnable task) {
+        try {
+            control.execute(task);
+        } catch (RuntimeException e) {
+            // Rejected during shutdown
+        }
+    }
+
+    // ---- Selector side ----
+
+    private void selectorLoop(Selector own, ConcurrentLinkedQueue<Subscription> polls,
+                              ConcurrentLinkedQueue<Subscription> closes) {
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(16384);
+        Set<Subscription> inFlight = new HashSet<>();
+
+        // A stop() followed at once by start() swaps the selector before this thread notices the flag
+        while (running && selector == own) {
+            Subscription closing;
+            while ((closing = closes.poll()) != null) {
+                // After a resubscribe, leave the socket alone if the new subscription already polls on it
+                if (closing.cancelled || closing.channelEpoch != closing.epoch.get()) {
+                    inFlight.remove(closing);
+                    closeChannel(closing);
+                }
+            }
+
+            Subscription queued;
+            while ((queued = polls.poll()) != null) {
+                Subscription sub = queued;
+                if (sub.cancelled) {
+                    closeChannel(sub);
+                    continue;
+                }
+                if (inFlight.remove(sub)) {
+                    // An older poll still owns the socket; two requests must never share one
+                    closeChannel(sub);
+                }
+                try {
+                    startRequest(sub, own);
+                    inFlight.add(sub);
+                } catch (IOException e) {
+                    closeChannel(sub);
+                    int epoch = sub.channelEpoch;
+                    runWorker(() -> pollFailed(sub, epoch));
+                }
+            }
+
+            try {
+                own.select(SELECT_INTERVAL_MS);
+            } catch (IOException e) {
+                Log.e(TAG, "Selector failed", e);
+                break;
+            }
+
+            Iterator<SelectionKey> keys = own.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Subscription sub = (Subscription) key.attachment();
+                try {
+                    if (handleKey(key, sub, readBuffer)) {
+                        inFlight.remove(sub);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    inFlight.remove(sub);
+                    closeChannel(sub);
+                    int epoch = sub.channelEpoch;
+                    runWorker(() -> pollFailed(sub, epoch));
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            Iterator<Subscription> it = inFlight.iterator();
+            while (it.hasNext()) {
+                Subscription sub = it.next();
+                if (now > sub.deadline) {
+                    it.remove();
+                    closeChannel(sub);
+                    int epoch = sub.channelEpoch;
+                    runWorker(() -> pollFailed(sub, epoch));
+                }
+            }
+        }
+
+        // Only this run's sockets; the subscription list may already belong to the next run
+        for (SelectionKey key : own.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {
+            }
+        }
+        try {
+            own.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** The selector thread can still be finishing a pass after stop() has shut the pool. */
+    private void runWorker(Runnable task) {
+        try {
+            workers.execute(task);
+        } catch (RuntimeException e) {
+            // Rejected during shutdown
+        }
+    }
+
+    private void startRequest(Subscription sub, Selector own) throws IOException {
+        sub.channelEpoch = sub.requestEpoch;
+        sub.parser.reset();
+        sub.deadline = System.currentTimeMillis() + PULL_TIMEOUT_MS + PULL_GRACE_MS;
+
+        String endpoint = sub.url.getHost() + ":" + port(sub.url);
+        if (sub.channel != null && sub.channel.isConnected() && endpoint.equals(sub.endpoint)) {
+            // Reuse the kept-alive connection
+            sub.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        closeChannel(sub);
+        sub.channel = SocketChannel.open();
+        sub.channel.configureBlocking(false);
+        sub.endpoint = endpoint;
+        boolean connected = sub.channel.connect(new InetSocketAddress(sub.url.getHost(), port(sub.url)));
+        sub.key = sub.channel.register(own, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, sub);
+    }
+
+    /** Returns true when the response is complete and has been handed to a worker. */
+    private boolean handleKey(SelectionKey key, Subscription sub, ByteBuffer readBuffer) throws IOException {
+        if (key.isConnectable()) {
+            sub.channel.finishConnect();
+            key.interestOps(SelectionKey.OP_WRITE);
+            return false;
+        }
+        if (key.isWritable()) {
+            sub.channel.write(sub.request);
+            if (!sub.request.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            return false;
+        }
+        if (!key.isReadable()) return false;
+
+        readBuffer.clear();
+        int n = sub.channel.read(readBuffer);
+        boolean complete;
+        if (n == -1) {
+            complete = sub.parser.finish();
+            closeChannel(sub);
+            if (!complete) throw new IOException("Connection closed mid-response");
+        } else {
+            readBuffer.flip();
+            complete = sub.parser.feed(readBuffer);
+        }
+        if (!complete) return false;
+
+        if (sub.key != null && sub.key.isValid()) {
+            key.interestOps(0);
+        }
+        if (!sub.parser.keepAlive) {
+            closeChannel(sub);
+        }
+        int code = sub.parser.code;
+        String challenge = sub.parser.wwwAuthenticate;
+        byte[] body = sub.parser.body();
+        int epoch = sub.channelEpoch;
+        runWorker(() -> handleResponse(sub, epoch, code, challenge, body));
+        return true;
+    }
+
+    private void closeChannel(Subscription sub) {
+        if (sub.channel == null) return;
+        try {
+            sub.channel.close();
+        } catch (IOException ignored) {
+        }
+        sub.channel = null;
+        sub.key = null;
+        sub.endpoint = null;
+    }
+
+    // ---- Parsing ----
+
+    static List<CameraEvent> parseNotifications(OnvifCamera camera, byte[] body, XmlPullParser parser)
+            throws Exception {
+        List<CameraEvent> events = new ArrayList<>();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(new ByteArrayInputStream(body), "UTF-8");
+
+        StringBuilder topic = new StringBuilder();
+        boolean inTopic = false;
+        boolean inData = false;
+        Boolean state = null;
+
+        for (int type = parser.getEventType(); type != XmlPullParser.END_DOCUMENT; type = parser.next()) {
+            if (type == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                if ("NotificationMessage".equals(name)) {
+                    topic.setLength(0);
+                    state = null;
+                } else if ("Topic".equals(name)) {
+                    inTopic = true;
+                } else if ("Data".equals(name)) {
+                    inData = true;
+                } else if ("SimpleItem".equals(name) && inData) {
+                    String value = parser.getAttributeValue(null, "Value");
+                    if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                        boolean active = Boolean.parseBoolean(value.toLowerCase(Locale.US));
+                        state = state == null ? active : state || active;
+                    }
+                }
+            } else if (type == XmlPullParser.TEXT && inTopic) {
+                topic.append(parser.getText().trim());
+            } else if (type == XmlPullParser.END_TAG) {
+                String name = parser.getName();
+                if ("Topic".equals(name)) {
+                    inTopic = false;
+                } else if ("Data".equals(name)) {
+                    inData = false;
+                } else if ("NotificationMessage".equals(name)) {
+                    CameraEvent.Type eventType = classify(topic.toString());
+                    if (eventType != null && state != null) {
+                        events.add(new CameraEvent(camera.getId(), eventType, state,
+                            System.currentTimeMillis(), topic.toString()));
+                    }
+                }
+            }
+        }
+        return events;
+    }
+
+    static CameraEvent.Type classify(String topic) {
+        String t = topic.toLowerCase(Locale.US);
+        if (t.contains("tamper") || t.contains("globalscenechange")) return CameraEvent.Type.TAMPER;
+        if (t.contains("motion")) return CameraEvent.Type.MOTION;
+        return null;
+    }
+
+    private static String addressingHeader(String action, String to) {
+        return "<wsa:Action>" + action + "</wsa:Action><wsa:To>" + WsSecurity.escape(to) + "</wsa:To>";
+    }
+
+    static long parseDateTime(String value) {
+        if (value == null) return 0;
+        Matcher m = XSD_DATE_TIME.matcher(value.trim());
+        if (!m.matches()) return 0;
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) - 1,
+            Integer.parseInt(m.group(3)), Integer.parseInt(m.group(4)),
+            Integer.parseInt(m.group(5)), Integer.parseInt(m.group(6)));
+        long millis = calendar.getTimeInMillis();
+        String zone = m.group(8);
+        if (zone != null && !zone.equals("Z")) {
+            int sign = zone.charAt(0) == '-' ? -1 : 1;
+            int offsetMinutes = Integer.parseInt(zone.substring(1, 3)) * 60 + Integer.parseInt(zone.substring(4, 6));
+            millis -= sign * offsetMinutes * 60_000L;
+        }
+        return millis;
+    }
+
+    private static int port(URL url) {
+        return url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+    }
+
+    private static class Subscription {
+        final OnvifCamera camera;
+        final OnvifDevice device;
+        final HttpResponseParser parser = new HttpResponseParser();
+        volatile String address;
+        volatile URL url;
+        volatile ByteBuffer request;
+        volatile int failures;
+        volatile int retries;
+        volatile boolean cancelled;
+        // Bumped on every resubscribe; polls carry the epoch they were sent under
+        final AtomicInteger epoch = new AtomicInteger();
+        volatile int requestEpoch;
+        volatile ScheduledFuture<?> renewTask;
+        DigestChallenge challenge;
+        int nonceCount;
+
+        // Owned by the selector thread
+        SocketChannel channel;
+        SelectionKey key;
+        String endpoint;
+        long deadline;
+        int channelEpoch;
+
+        Subscription(OnvifCamera camera, OnvifHttpClient http) {
+            this.camera = camera;
+            this.device = new OnvifDevice(camera, http);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.onvifscanner.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Incremental HTTP/1.1 response parser for non-blocking channels: bytes are
+ * fed as they arrive and feed() reports when a full response has been read.
+ * Handles Content-Length and chunked bodies.
+ */
+class HttpResponseParser {
+    private byte[] data = new byte[4096];
+    private int length;
+    private int headerEnd = -1;
+
+    int code;
+    int contentLength = -1;
+    boolean chunked;
+    boolean keepAlive = true;
+    String wwwAuthenticate;
+    private byte[] body;
+
+    void reset() {
+        length = 0;
+        headerEnd = -1;
+        code = 0;
+        contentLength = -1;
+        chunked = false;
+        keepAlive = true;
+        wwwAuthenticate = null;
+        body = null;
+    }
+
+    /** Appends the buffer's remaining bytes; returns true once the response is complete. */
+    boolean feed(ByteBuffer buffer) {
+        int n = buffer.remaining();
+        if (length + n > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+        }
+        buffer.get(data, length, n);
+        length += n;
+
+        if (headerEnd == -1) {
+            headerEnd = indexOfHeaderEnd();
+            if (headerEnd == -1) return false;
+            parseHeaders();
+        }
+
+        if (chunked) {
+            return decodeChunked();
+        }
+        if (contentLength >= 0) {
+            if (length - headerEnd < contentLength) return false;
+            body = Arrays.copyOfRange(data, headerEnd, headerEnd + contentLength);
+            return true;
+        }
+        // No length: body runs to connection close, which the caller reports via finish()
+        return false;
+    }
+
+    /** Called when the peer closes; completes a close-delimited body. */
+    boolean finish() {
+        if (headerEnd == -1 || chunked || contentLength >= 0) return false;
+        body = Arrays.copyOfRange(data, headerEnd, length);
+        keepAlive = false;
+        return true;
+    }
+
+    byte[] body() {
+        return body;
+    }
+
+    private int indexOfHeaderEnd() {
+        for (int i = 3; i < length; i++) {
+            if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void parseHeaders() {
+        String[] lines = new String(data, 0, headerEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] status = lines[0].split(" ");
+        code = status.length > 1 ? Integer.parseInt(status[1]) : 0;
+        if (lines[0].startsWith("HTTP/1.0")) {
+            keepAlive = false;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon == -1) continue;
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = lines[i].substring(colon + 1).trim();
+            switch (name) {
+                case "content-length":
+                    contentLength = Integer.parseInt(value);
+                    break;
+                case "transfer-encoding":
+                    chunked = value.toLowerCase(Locale.US).contains("chunked");
+                    break;
+                case "connection":
+                    if (value.equalsIgnoreCase("close")) keepAlive = false;
+                    if (value.equalsIgnoreCase("keep-alive")) keepAlive = true;
+                    break;
+                case "www-authenticate":
+                    if (value.regionMatches(true, 0, "Digest", 0, 6)) wwwAuthenticate = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private boolean decodeChunked() {
+        int pos = headerEnd;
+        int out = 0;
+        byte[] decoded = new byte[length - headerEnd];
+        while (true) {
+            int lineEnd = indexOfCrlf(pos);
+            if (lineEnd == -1) return false;
+            String sizeLine = new String(data, pos, lineEnd - pos, StandardCharsets.ISO_8859_1);
+            int semicolon = sizeLine.indexOf(';');
+            int size = Integer.parseInt((semicolon == -1 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+            pos = lineEnd + 2;
+            if (size == 0) {
+                // Last chunk; wait for the (empty) trailer's terminating CRLF
+                if (indexOfCrlf(pos) == -1) return false;
+                body = Arrays.copyOf(decoded, out);
+                return true;
+            }
+            if (pos + size + 2 > length) return false;
+            System.arraycopy(data, pos, decoded, out, size);
+            out += size;
+            pos += size + 2;
+        }
+    }
+
+    private int indexOfCrlf(int from) {
+        for (int i = from; i + 1 < length; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+package com.onvifscanner.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IPv4 host ranges given as CIDR ("10.2.0.0/22") or as the three-octet
+ * prefix NetworkScanner uses for the local /24 ("192.168.1").
+ */
+public final class IpRange {
+    private final int network;
+    private final int prefixLength;
+
+    private IpRange(int network, int prefixLength) {
+        this.network = network;
+        this.prefixLength = prefixLength;
+    }
+
+    public static IpRange parse(String spec) {
+        String s = spec.trim();
+        int prefix = 24;
+        int slash = s.indexOf('/');
+        if (slash != -1) {
+            prefix = Integer.parseInt(s.substring(slash + 1));
+            s = s.substring(0, slash);
+        } else if (s.split("\\.").length == 3) {
+            s = s + ".0";
+        }
+        if (prefix < 16 || prefix > 32) {
+            throw new IllegalArgumentException("Unsupported prefix length: " + spec);
+        }
+
+        String[] octets = s.split("\\.");
+        if (octets.length != 4) {
+            throw new IllegalArgumentException("Not an IPv4 range: " + spec);
+        }
+        int address = 0;
+        for (String octet : octets) {
+            int value = Integer.parseInt(octet);
+            if (value < 0 || value > 255) {
+                throw new IllegalArgumentException("Not an IPv4 range: " + spec);
+            }
+            address = (address << 8) | value;
+        }
+        int mask = -1 << (32 - prefix);
+        return new IpRange(address & mask, prefix);
+    }
+
+    public int size() {
+        int total = 1 << (32 - prefixLength);
+        // Network and broadcast addresses are not hosts below /31
+        return prefixLength >= 31 ? total : total - 2;
+    }
+
+    public List<String> hosts() {
+        List<String> result = new ArrayList<>(size());
+        int first = prefixLength >= 31 ? network : network + 1;
+        for (int i = 0; i < size(); i++) {
+            result.add(toDotted(first + i));
+        }
+        return result;
+    }
+
+    public List<InetAddress> hostAddresses() throws UnknownHostException {
+        List<InetAddress> result = new ArrayList<>(size());
+        for (String host : hosts()) {
+            result.add(InetAddress.getByName(host));
+        }
+        return result;
+    }
+
+    private static String toDotted(int address) {
+        return ((address >>> 24) & 0xff) + "." + ((address >>> 16) & 0xff) + "." +
+            ((address >>> 8) & 0xff) + "." + (address & 0xff);
+    }
+
+    @Override
+    public String toString() {
+        return toDotted(network) + "/" + prefixLength;
+    }
+}
@@ -0,0 +1,431 @@
+package com.onvifscanner.network;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.onvifscanner.camera.OnvifCamera;
+import com.onvifscanner.camera.StreamProfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ranks cameras by recent activity from periodic ONVIF snapshots, without
+ * opening any streams. Each snapshot is decoded at reduced size into a small
+ * luma thumbnail and compared with the camera's previous one; the share of
+ * changed pixels feeds a per-camera activity score that decays over time.
+ *
+ * Decode buffers, pixel arrays and thumbnails are allocated once per worker
+ * or camera and reused, so a cycle over hundreds of cameras creates little
+ * garbage beyond the JPEG bytes themselves. The ranked list is rebuilt in the
+ * background after each cycle and published as a snapshot for the UI.
+ */
+public class MotionTriage {
+    private static final String TAG = "MotionTriage";
+
+    private static final int WORKER_THREADS = 4;
+    // One for the snapshot cycle, one so re-ranking doesn't wait for a cycle to finish
+    private static final int SCHEDULER_THREADS = 2;
+    private static final long CYCLE_DELAY_MS = 60_000;
+    private static final long CYCLE_TIMEOUT_MS = 120_000;
+    static final long HALF_LIFE_MS = 5 * 60_000;
+    static final int MAX_SKIPPED_CYCLES = 10;
+
+    static final int THUMB_WIDTH = 64;
+    static final int THUMB_HEIGHT = 48;
+    static final int THUMB_SIZE = THUMB_WIDTH * THUMB_HEIGHT;
+    // Luma steps a pixel must move (after brightness compensation) to count as changed
+    static final int CHANGE_THRESHOLD = 24;
+
+    public interface Listener {
+        /** Called on a background thread once a new ranking is published. */
+        void onActivityUpdated();
+    }
+
+    private static class CameraState {
+        // Set while an update runs; the fields below belong to whoever set it
+        final AtomicBoolean busy = new AtomicBoolean();
+        String snapshotUrl;
+        final byte[] thumbnail = new byte[THUMB_SIZE];
+        int mean = -1;
+        volatile double activity;
+        volatile long updatedAt;
+        int failures;
+        int skip;
+    }
+
+    /** Per-worker scratch space, grown to the largest decoded frame seen. */
+    static class Decoder {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap reusable;
+        int[] pixels = new int[0];
+        int[] cellOfColumn = new int[0];
+        final int[] sums = new int[THUMB_SIZE];
+        final int[] counts = new int[THUMB_SIZE];
+        final byte[] thumbnail = new byte[THUMB_SIZE];
+    }
+
+    private final Listener listener;
+    private final OnvifHttpClient http;
+    private final Map<String, CameraState> states = new ConcurrentHashMap<>();
+    private final ThreadLocal<Decoder> decoders = ThreadLocal.withInitial(Decoder::new);
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+    // Cameras with an address, which the cycle fetches snapshots from
+    private volatile List<OnvifCamera> cameras = new ArrayList<>();
+    // Every camera, which the ranking orders
+    private volatile List<OnvifCamera> allCameras = new ArrayList<>();
+    private volatile List<OnvifCamera> ranked = Collections.emptyList();
+    // Cycle and camera-list updates can both publish; one at a time so the newest list wins
+    private final Object rankLock = new Object();
+
+    public MotionTriage(Listener listener) {
+        this(listener, OnvifHttpClient.shared());
+    }
+
+    public MotionTriage(Listener listener, OnvifHttpClient http) {
+        this.listener = listener;
+        this.http = http;
+    }
+
+    public synchronized void start(List<OnvifCamera> cameraList) {
+        stop();
+        setCameraList(cameraList);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, r -> {
+            Thread t = new Thread(r, "triage-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, r -> {
+            Thread t = new Thread(r, "triage-cycle");
+            t.setDaemon(true);
+            return t;
+        });
+        // Order by the scores kept from earlier runs while the first cycle is still out
+        scheduler.execute(this::publishRanking);
+        scheduler.scheduleWithFixedDelay(this::runCycle, 0, CYCLE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the camera list without restarting the cycle. The ranking is
+     * rebuilt in the background; until then getRanked() returns the old one.
+     */
+    public synchronized void setCameras(List<OnvifCamera> cameraList) {
+        setCameraList(cameraList);
+        if (scheduler != null) {
+            scheduler.execute(this::publishRanking);
+        }
+    }
+
+    private void setCameraList(List<OnvifCamera> cameraList) {
+        List<OnvifCamera> all = new ArrayList<>(cameraList);
+        List<OnvifCamera> reachable = new ArrayList<>();
+        for (OnvifCamera camera : all) {
+            // Snapshots need the ONVIF media service; manual RTSP entries have no address
+            if (camera.getIpAddress() != null && !camera.getIpAddress().isEmpty()) {
+                reachable.add(camera);
+            }
+        }
+        allCameras = all;
+        cameras = reachable;
+        if (scheduler == null || ranked.isEmpty()) {
+            ranked = Collections.unmodifiableList(all);
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+            scheduler = null;
+            workers = null;
+        }
+    }
+
+    /** Current activity of a camera, decayed to now; 0 if it hasn't been seen moving. */
+    public double getActivity(String cameraId) {
+        return activityAt(cameraId, System.currentTimeMillis());
+    }
+
+    double activityAt(String cameraId, long now) {
+        CameraState state = states.get(cameraId);
+        if (state == null || state.updatedAt == 0) return 0;
+        return decay(state.activity, now - state.updatedAt);
+    }
+
+    /** The latest published ranking, most active first; unmodifiable and cheap to call. */
+    public List<OnvifCamera> getRanked() {
+        return ranked;
+    }
+
+    /** Sorts every camera by activity, ties in list order, and hands the result to the UI. */
+    void publishRanking() {
+        synchronized (rankLock) {
+            rank(allCameras);
+        }
+        listener.onActivityUpdated();
+    }
+
+    private void rank(List<OnvifCamera> all) {
+        long now = System.currentTimeMillis();
+        int n = all.size();
+        // Sort positions by a key of (score, position) so ties stay stable without boxing scores
+        double[] scores = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = activityAt(all.get(i).getId(), now);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int byScore = Double.compare(scores[b], scores[a]);
+            return byScore != 0 ? byScore : Integer.compare(a, b);
+        });
+        List<OnvifCamera> result = new ArrayList<>(n);
+        for (Integer index : order) {
+            result.add(all.get(index));
+        }
+        ranked = Collections.unmodifiableList(result);
+    }
+
+    private void runCycle() {
+        List<OnvifCamera> snapshot = cameras;
+        ExecutorService pool = workers;
+        if (pool == null) return;
+        CountDownLatch done = new CountDownLatch(snapshot.size());
+        for (OnvifCamera camera : snapshot) {
+            CameraState state = states.computeIfAbsent(camera.getId(), id -> new CameraState());
+            if (!state.busy.compareAndSet(false, true)) {
+                // Still updating from a cycle that timed out waiting for it; leave it to finish
+                done.countDown();
+                continue;
+            }
+            try {
+                pool.execute(() -> {
+                    try {
+                        update(camera, state);
+                    } finally {
+                        state.busy.set(false);
+                        done.countDown();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Stopped mid-cycle
+                state.busy.set(false);
+                return;
+            }
+        }
+        try {
+            done.await(CYCLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        publishRanking();
+    }
+
+    private void update(OnvifCamera camera, CameraState state) {
+        if (state.skip > 0) {
+            state.skip--;
+            return;
+        }
+        try {
+            if (state.snapshotUrl == null) {
+                state.snapshotUrl = resolveSnapshotUrl(camera);
+                if (state.snapshotUrl == null) {
+                    // No snapshot support; don't ask again for a while
+                    state.skip = MAX_SKIPPED_CYCLES;
+                    return;
+                }
+            }
+            OnvifHttpClient.Response response = http.get(state.snapshotUrl,
+                camera.getUsername(), camera.getPassword());
+            if (!response.isSuccessful() || response.body == null) {
+                throw new IOException("HTTP " + response.code);
+            }
+
+            Decoder decoder = decoders.get();
+            if (!decodeThumbnail(decoder, response.body)) {
+                throw new IOException("Undecodable snapshot");
+            }
+            recordFrame(state, decoder.thumbnail, System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            recordFailure(state);
+            Log.w(TAG, camera.getIpAddress() + ": " + e.getMessage());
+        }
+    }
+
+    /** Scores a new thumbnail against the camera's previous one and keeps it for next time. */
+    void recordFrame(String cameraId, byte[] thumbnail, long now) {
+        recordFrame(states.computeIfAbsent(cameraId, id -> new CameraState()), thumbnail, now);
+    }
+
+    private static void recordFrame(CameraState state, byte[] thumbnail, long now) {
+        int mean = mean(thumbnail);
+        if (state.mean >= 0) {
+            double score = (double) changedPixels(state.thumbnail, thumbnail,
+                mean - state.mean, CHANGE_THRESHOLD) / THUMB_SIZE;
+            state.activity = decay(state.activity, now - state.updatedAt) + score;
+        }
+        System.arraycopy(thumbnail, 0, state.thumbnail, 0, THUMB_SIZE);
+        state.mean = mean;
+        state.updatedAt = now;
+        state.failures = 0;
+    }
+
+    private static void recordFailure(CameraState state) {
+        state.failures++;
+        state.skip = skippedCycles(state.failures);
+        state.snapshotUrl = null;
+    }
+
+    /** Back off unreachable cameras: skip 1, 2, 4... cycles up to the cap. */
+    static int skippedCycles(int failures) {
+        return Math.min(1 << Math.min(failures - 1, 4), MAX_SKIPPED_CYCLES);
+    }
+
+    private String resolveSnapshotUrl(OnvifCamera camera) throws IOException {
+        OnvifDevice device = new OnvifDevice(camera, http);
+        // Prefer the smallest stored profile; some cameras size snapshots to the profile
+        String token = null;
+        long pixels = Long.MAX_VALUE;
+        for (StreamProfile profile : camera.getProfiles()) {
+            if (profile.getPixels() < pixels) {
+                pixels = profile.getPixels();
+                token = profile.getToken();
+            }
+        }
+        if (token == null) {
+            List<String> tokens = device.getProfileTokens();
+            if (tokens.isEmpty()) return null;
+            token = tokens.get(0);
+        }
+        return device.getSnapshotUri(token);
+    }
+
+    /**
+     * Decodes the JPEG at the largest power-of-two reduction that still covers
+     * twice the thumbnail size, into the worker's reused bitmap, then
+     * box-averages its luma into decoder.thumbnail.
+     */
+    private static boolean decodeThumbnail(Decoder decoder, byte[] jpeg) {
+        BitmapFactory.Options options = decoder.options;
+        options.inJustDecodeBounds = true;
+        options.inBitmap = null;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return false;
+
+        int sample = 1;
+        while (options.outWidth / (sample * 2) >= THUMB_WIDTH * 2
+                && options.outHeight / (sample * 2) >= THUMB_HEIGHT * 2) {
+            sample *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inBitmap = decoder.reusable;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        } catch (IllegalArgumentException e) {
+            // Reusable bitmap too small for this frame; decode fresh and keep that one instead
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        }
+        if (bitmap == null) return false;
+        if (bitmap != decoder.reusable) {
+            if (decoder.reusable != null) decoder.reusable.recycle();
+            decoder.reusable = bitmap;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (decoder.pixels.length < width * height) {
+            decoder.pixels = new int[width * height];
+        }
+        bitmap.getPixels(decoder.pixels, 0, width, 0, 0, width, height);
+        downsampleLuma(decoder, width, height);
+        return true;
+    }
+
+    /** Box-averages ARGB pixels into THUMB_WIDTH x THUMB_HEIGHT luma, using only the decoder's buffers. */
+    static void downsampleLuma(Decoder decoder, int width, int height) {
+        int[] pixels = decoder.pixels;
+        int[] sums = decoder.sums;
+        int[] counts = decoder.counts;
+        if (decoder.cellOfColumn.length < width) {
+            decoder.cellOfColumn = new int[width];
+        }
+        int[] cellOfColumn = decoder.cellOfColumn;
+        for (int x = 0; x < width; x++) {
+            cellOfColumn[x] = x * THUMB_WIDTH / width;
+        }
+        for (int i = 0; i < THUMB_SIZE; i++) {
+            sums[i] = 0;
+            counts[i] = 0;
+        }
+
+        for (int y = 0; y < height; y++) {
+            int rowCell = (y * THUMB_HEIGHT / height) * THUMB_WIDTH;
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int argb = pixels[offset + x];
+                // BT.601 luma in 8-bit fixed point
+                int luma = (((argb >> 16) & 0xff) * 77 + ((argb >> 8) & 0xff) * 150 + (argb & 0xff) * 29) >> 8;
+                int cell = rowCell + cellOfColumn[x];
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+
+        byte[] thumbnail = decoder.thumbnail;
+        for (int i = 0; i < THUMB_SIZE; i++) {
+            thumbnail[i] = (byte) (counts[i] > 0 ? sums[i] / counts[i] : 0);
+        }
+    }
+
+    static int mean(byte[] thumbnail) {
+        int sum = 0;
+        for (int i = 0; i < THUMB_SIZE; i++) {
+            sum += thumbnail[i] & 0xff;
+        }
+        return sum / THUMB_SIZE;
+    }
+
+    /**
+     * Pixels whose luma moved by more than threshold, after removing the
+     * overall brightness shift (IR switching, clouds). Branch-free so the
+     * loop stays a straight run of integer ops.
+     */
+    static int changedPixels(byte[] previous, byte[] current, int brightnessShift, int threshold) {
+        int changed = 0;
+        for (int i = 0; i < THUMB_SIZE; i++) {
+            int d = (current[i] & 0xff) - (previous[i] & 0xff) - brightnessShift;
+            int sign = d >> 31;
+            int abs = (d ^ sign) - sign;
+            changed += (threshold - abs) >>> 31;
+        }
+        return changed;
+    }
+
+    static double decay(double activity, long elapsedMs) {
+        return activity * Math.pow(0.5, (double) elapsedMs / HALF_LIFE_MS);
+    }
+}
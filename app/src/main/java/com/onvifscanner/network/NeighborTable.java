@@ -0,0 +1,148 @@
+package com.onvifscanner.network;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Liveness hints from the kernel neighbor (ARP) table, used to sweep hosts
+ * that are known to be up before the rest of the range.
+ */
+public class NeighborTable {
+    private static final String TAG = "NeighborTable";
+    private static final File PROC_NET_ARP = new File("/proc/net/arp");
+
+    // ATF_COM: the entry has a resolved hardware address
+    private static final int ATF_COM = 0x2;
+    private static final int DISCARD_PORT = 9;
+
+    public enum State {
+        /** Resolved hardware address: something answered ARP. */
+        REACHABLE,
+        /** Resolution pending or failed: most likely nothing there. */
+        INCOMPLETE,
+        /** No entry at all. */
+        UNKNOWN
+    }
+
+    private final File source;
+
+    public NeighborTable() {
+        this(PROC_NET_ARP);
+    }
+
+    /** Reads from the given file instead of /proc/net/arp, e.g. a fixture. */
+    public NeighborTable(File source) {
+        this.source = source;
+    }
+
+    /**
+     * Whether the table can be opened at all. Apps on Android 10 and later are
+     * denied /proc/net/arp, and then neither nudging nor ordering buys anything.
+     */
+    public boolean isReadable() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+            reader.readLine();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns IPv4 address to state. Empty if the table cannot be read, which is
+     * the normal case for apps on Android 10 and later.
+     */
+    public Map<String, State> read() {
+        try (Reader reader = new FileReader(source)) {
+            return parse(reader);
+        } catch (Exception e) {
+            Log.d(TAG, "Neighbor table unavailable: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    /** Parses the /proc/net/arp format, header line first; malformed lines are skipped. */
+    static Map<String, State> parse(Reader source) throws IOException {
+        Map<String, State> table = new HashMap<>();
+        BufferedReader reader = new BufferedReader(source);
+        // Header: IP address  HW type  Flags  HW address  Mask  Device
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 4) continue;
+            int flags;
+            try {
+                flags = Integer.decode(fields[2]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            boolean resolved = (flags & ATF_COM) != 0 && !fields[3].equals("00:00:00:00:00:00");
+            table.put(fields[0], resolved ? State.REACHABLE : State.INCOMPLETE);
+        }
+        return table;
+    }
+
+    /**
+     * Sends one empty UDP datagram to the discard port of each host. The packet
+     * itself is ignored; sending it makes the kernel resolve the host's address.
+     */
+    public static void nudge(List<String> hosts, ScanThrottle throttle) {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            ByteBuffer empty = ByteBuffer.allocate(0);
+            for (String host : hosts) {
+                throttle.acquire(host);
+                try {
+                    channel.send(empty, new InetSocketAddress(host, DISCARD_PORT));
+                } catch (Exception e) {
+                    // Unroutable hosts are exactly what we are trying to find
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.w(TAG, "Neighbor nudge failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Orders hosts as reachable, then unknown, then incomplete. Incomplete hosts
+     * are dropped entirely when skipIncomplete is set.
+     */
+    public static List<String> order(List<String> hosts, Map<String, State> table, boolean skipIncomplete) {
+        List<String> reachable = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+        List<String> incomplete = new ArrayList<>();
+        for (String host : hosts) {
+            State state = table.get(host);
+            if (state == State.REACHABLE) {
+                reachable.add(host);
+            } else if (state == State.INCOMPLETE) {
+                incomplete.add(host);
+            } else {
+                unknown.add(host);
+            }
+        }
+
+        List<String> ordered = new ArrayList<>(hosts.size());
+        ordered.addAll(reachable);
+        ordered.addAll(unknown);
+        if (!skipIncomplete) {
+            ordered.addAll(incomplete);
+        }
+        Log.d(TAG, "Neighbor pre-filter: " + reachable.size() + " reachable, " + unknown.size() +
+            " unknown, " + incomplete.size() + " incomplete" + (skipIncomplete ? " (skipped)" : ""));
+        return ordered;
+    }
+}
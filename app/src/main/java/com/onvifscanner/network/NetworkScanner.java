@@ -8,52 +8,75 @@ import android.util.Log;
 
 import com.onvifscanner.camera.OnvifCamera;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.MulticastSocket;
-import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class NetworkScanner {
     private static final String TAG = "NetworkScanner";
-    private static final int WS_DISCOVERY_PORT = 3702;
-    private static final String WS_DISCOVERY_MULTICAST = "239.255.255.250";
-    
-    private static final String WS_DISCOVERY_PROBE = 
-        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-        "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" " +
-        "xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\">\n" +
-        "<s:Header>\n" +
-        "<a:Action s:mustUnderstand=\"1\">http://schemas.xmlsoap.org/ws/2005/04/discovery/Probe</a:Action>\n" +
-        "<a:MessageID>uuid:%s</a:MessageID>\n" +
-        "<a:ReplyTo>\n" +
-        "<a:Address>http://schemas.xmlsoap.org/ws/2004/08/addressing/role/anonymous</a:Address>\n" +
-        "</a:ReplyTo>\n" +
-        "<a:To s:mustUnderstand=\"1\">urn:schemas-xmlsoap-org:ws:2005/04:discovery</a:To>\n" +
-        "</s:Header>\n" +
-        "<s:Body>\n" +
-        "<Probe xmlns=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\">\n" +
-        "<d:Types xmlns:d=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\" " +
-        "xmlns:dp0=\"http://www.onvif.org/ver10/network/wsdl\">dp0:NetworkVideoTransmitter</d:Types>\n" +
-        "</Probe>\n" +
-        "</s:Body>\n" +
-        "</s:Envelope>";
+    private static final int DEFAULT_DIRECTED_PROBE_RATE = 200;
+    private static final int NEIGHBOR_SETTLE_MS = 500;
+    private static final long IP_SCAN_TIMEOUT_MS = 30_000;
 
     private final Context context;
     private final ExecutorService executor;
+    private final ExecutorService probeExecutor;
+    private final ScanExecutors.Mode probeMode;
     private WifiManager.MulticastLock multicastLock;
+    private int expectedDevices = 0;
+    private int directedProbeRate = DEFAULT_DIRECTED_PROBE_RATE;
+    private ScanThrottle throttle = ScanThrottle.createDefault();
+    private NeighborTable neighborTable = new NeighborTable();
+    private boolean nudgeNeighbors = false;
+    private boolean skipIncompleteNeighbors = false;
 
     public NetworkScanner(Context context) {
+        this(context, ScanExecutors.Mode.BOUNDED);
+    }
+
+    public NetworkScanner(Context context, ScanExecutors.Mode probeMode) {
         this.context = context;
-        this.executor = Executors.newCachedThreadPool();
+        // Scans run one at a time; they share the multicast lock field
+        this.executor = Executors.newSingleThreadExecutor();
+        this.probeMode = probeMode;
+        this.probeExecutor = ScanExecutors.create(probeMode);
+    }
+
+    /** Lets WS-Discovery stop early once this many cameras have answered. */
+    public void setExpectedDevices(int expectedDevices) {
+        this.expectedDevices = expectedDevices;
+    }
+
+    /** Packets per second for directed WS-Discovery probes to routed subnets. */
+    public void setDirectedProbeRate(int packetsPerSecond) {
+        this.directedProbeRate = packetsPerSecond;
+    }
+
+    /** Token-bucket budgets applied to every TCP, HTTP and UDP probe this scanner sends. */
+    public void setThrottle(ScanThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Configures the neighbor-table pre-pass of the IP sweep. With nudge set, every
+     * host gets a UDP datagram first so the kernel resolves it; with skipIncomplete
+     * set, hosts whose resolution failed are not probed at all. The whole pre-pass
+     * is skipped when the table can't be read.
+     */
+    public void setNeighborPrefilter(NeighborTable table, boolean nudge, boolean skipIncomplete) {
+        this.neighborTable = table;
+        this.nudgeNeighbors = nudge;
+        this.skipIncompleteNeighbors = skipIncomplete;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        probeExecutor.shutdownNow();
     }
 
     public interface ScanCallback {
@@ -124,119 +147,45 @@ public class NetworkScanner {
         });
     }
 
-    private List<OnvifCamera> wsDiscoveryScan() throws Exception {
-        List<OnvifCamera> cameras = new ArrayList<>();
-        
-        try {
-            MulticastSocket socket = new MulticastSocket(null);
-            socket.setReuseAddress(true);
-            socket.bind(new InetSocketAddress(WS_DISCOVERY_PORT));
-            socket.setSoTimeout(3000);
-            
-            InetAddress group = InetAddress.getByName(WS_DISCOVERY_MULTICAST);
-            socket.joinGroup(new InetSocketAddress(group, WS_DISCOVERY_PORT), null);
-            Log.d(TAG, "WS-Discovery socket created and joined group");
-
-            // Send probe
-            String probe = String.format(WS_DISCOVERY_PROBE, java.util.UUID.randomUUID().toString());
-            byte[] probeData = probe.getBytes();
-            DatagramPacket probePacket = new DatagramPacket(
-                probeData, probeData.length, group, WS_DISCOVERY_PORT);
-            socket.send(probePacket);
-            Log.d(TAG, "WS-Discovery probe sent");
-
-            // Listen for responses
-            byte[] buffer = new byte[8192];
-            long startTime = System.currentTimeMillis();
-            int responseCount = 0;
-            
-            while (System.currentTimeMillis() - startTime < 5000) {
-                try {
-                    DatagramPacket response = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(response);
-                    responseCount++;
-                    
-                    String responseStr = new String(response.getData(), 0, response.getLength());
-                    Log.d(TAG, "Received response #" + responseCount + " from " + response.getAddress());
-                    
-                    OnvifCamera camera = parseWsDiscoveryResponse(responseStr);
-                    
-                    if (camera != null) {
-                        boolean exists = false;
-                        for (OnvifCamera c : cameras) {
-                            if (c.getIpAddress() != null && 
-                                c.getIpAddress().equals(camera.getIpAddress())) {
-                                exists = true;
-                                break;
-                            }
-                        }
-                        if (!exists) {
-                            cameras.add(camera);
-                            Log.d(TAG, "Added camera: " + camera.getIpAddress());
+    /**
+     * Scans routed subnets (CIDR or three-octet prefix) with unicast WS-Discovery
+     * probes, since multicast does not cross routers.
+     */
+    public void scanSubnets(List<String> ranges, ScanCallback callback) {
+        executor.execute(() -> {
+            try {
+                List<OnvifCamera> foundCameras = new ArrayList<>();
+                WsDiscovery discovery = new WsDiscovery();
+                discovery.setThrottle(throttle);
+                for (String range : ranges) {
+                    IpRange ipRange = IpRange.parse(range);
+                    Log.d(TAG, "Directed probe of " + ipRange);
+                    for (OnvifCamera cam : discovery.probeHosts(ipRange.hostAddresses(), directedProbeRate)) {
+                        if (!WsDiscovery.containsIp(foundCameras, cam.getIpAddress())) {
+                            foundCameras.add(cam);
+                            new Handler(Looper.getMainLooper()).post(() ->
+                                callback.onCameraFound(cam));
                         }
                     }
-                } catch (SocketTimeoutException e) {
-                    Log.d(TAG, "WS-Discovery socket timeout");
-                    break;
                 }
-            }
-            
-            socket.close();
-            Log.d(TAG, "WS-Discovery complete. Responses: " + responseCount + ", Cameras: " + cameras.size());
-            
-        } catch (Exception e) {
-            Log.e(TAG, "WS-Discovery error", e);
-        }
-        
-        return cameras;
-    }
 
-    private OnvifCamera parseWsDiscoveryResponse(String response) {
-        try {
-            if (!response.contains("XAddrs") && !response.contains("onvif") && !response.contains("NetworkVideo")) {
-                return null;
-            }
+                Log.d(TAG, "Subnet scan found: " + foundCameras.size() + " cameras");
+                new Handler(Looper.getMainLooper()).post(() ->
+                    callback.onScanComplete(foundCameras));
 
-            String xaddr = extractValue(response, "<d:XAddrs>", "</d:XAddrs>");
-            if (xaddr == null) {
-                xaddr = extractValue(response, "<wsdd:XAddrs>", "</wsdd:XAddrs>");
-            }
-            if (xaddr == null) {
-                xaddr = extractValue(response, "<XAddrs>", "</XAddrs>");
-            }
-            if (xaddr == null) {
-                xaddr = extractValue(response, "<wsa:Address>", "</wsa:Address>");
+            } catch (Exception e) {
+                Log.e(TAG, "Subnet scan error", e);
+                new Handler(Looper.getMainLooper()).post(() ->
+                    callback.onError("Scan failed: " + e.getMessage()));
             }
+        });
+    }
 
-            if (xaddr != null && (xaddr.contains("http") || xaddr.contains("onvif"))) {
-                OnvifCamera camera = new OnvifCamera();
-                
-                xaddr = xaddr.trim();
-                if (xaddr.contains(" ")) {
-                    xaddr = xaddr.split(" ")[0];
-                }
-                
-                if (xaddr.startsWith("http")) {
-                    URL url = new URL(xaddr);
-                    camera.setIpAddress(url.getHost());
-                    camera.setPort(url.getPort() > 0 ? url.getPort() : 80);
-                    camera.setName("ONVIF Camera @ " + url.getHost());
-                    camera.setRtspUrl("rtsp://" + url.getHost() + ":554/stream1");
-                } else if (xaddr.contains(":")) {
-                    // Format: ip:port
-                    String[] parts = xaddr.split(":");
-                    camera.setIpAddress(parts[0]);
-                    camera.setPort(parts.length > 1 ? Integer.parseInt(parts[1]) : 80);
-                    camera.setName("ONVIF Camera @ " + parts[0]);
-                    camera.setRtspUrl("rtsp://" + parts[0] + ":554/stream1");
-                }
-                
-                return camera;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing WS-Discovery response: " + e.getMessage());
-        }
-        return null;
+    private List<OnvifCamera> wsDiscoveryScan() {
+        WsDiscovery discovery = new WsDiscovery();
+        discovery.setExpectedDevices(expectedDevices);
+        discovery.setThrottle(throttle);
+        return discovery.discover();
     }
 
     private List<OnvifCamera> ipRangeScan() throws Exception {
@@ -249,54 +198,97 @@ public class NetworkScanner {
         }
         Log.d(TAG, "Scanning subnet: " + subnet + ".x");
 
-        ExecutorService scanExecutor = Executors.newFixedThreadPool(50);
+        long startTime = System.currentTimeMillis();
+        List<String> hosts = IpRange.parse(subnet).hosts();
+        // Checked first, so an unreadable table doesn't cost a nudge round and the settle delay
+        if (neighborTable.isReadable()) {
+            if (nudgeNeighbors) {
+                NeighborTable.nudge(hosts, throttle);
+                Thread.sleep(NEIGHBOR_SETTLE_MS);
+            }
+            hosts = NeighborTable.order(hosts, neighborTable.read(), skipIncompleteNeighbors);
+        } else {
+            Log.d(TAG, "Neighbor table unreadable; sweeping in address order");
+        }
+
         List<OnvifCamera> syncCameras = new ArrayList<>();
-        
-        for (int i = 1; i < 255; i++) {
-            final String ip = subnet + "." + i;
-            scanExecutor.execute(() -> {
-                if (checkOnvifDevice(ip)) {
-                    OnvifCamera camera = new OnvifCamera();
-                    camera.setIpAddress(ip);
-                    camera.setPort(80);
-                    camera.setName("ONVIF Camera @ " + ip);
-                    camera.setRtspUrl("rtsp://" + ip + ":554/stream1");
-                    
-                    synchronized (syncCameras) {
-                        syncCameras.add(camera);
-                    }
-                    Log.d(TAG, "IP scan found camera: " + ip);
-                }
-            });
+        int cancelled = probeAll(probeExecutor, hosts, ip -> probeHost(ip, syncCameras), IP_SCAN_TIMEOUT_MS);
+        if (cancelled > 0) {
+            Log.w(TAG, "IP scan timed out; cancelled " + cancelled + " outstanding probes");
         }
-        
-        scanExecutor.shutdown();
-        scanExecutor.awaitTermination(30, TimeUnit.SECONDS);
-        
-        cameras.addAll(syncCameras);
-        Log.d(TAG, "IP scan complete. Found: " + cameras.size());
+
+        synchronized (syncCameras) {
+            cameras.addAll(syncCameras);
+        }
+        Log.d(TAG, "IP scan complete. Found: " + cameras.size() + " in " +
+            (System.currentTimeMillis() - startTime) + " ms (" + probeMode + ")");
         return cameras;
     }
 
-    private boolean checkOnvifDevice(String ip) {
+    /**
+     * Runs probe for every host on executor and waits up to timeoutMs. Probes
+     * still queued or running after that are cancelled, so a timed-out sweep
+     * doesn't hold the shared executor into the next scan. Returns how many
+     * were cancelled.
+     */
+    static int probeAll(ExecutorService executor, List<String> hosts, Consumer<String> probe, long timeoutMs)
+            throws InterruptedException {
+        CountDownLatch pending = new CountDownLatch(hosts.size());
+        List<Future<?>> probes = new ArrayList<>(hosts.size());
+        for (String ip : hosts) {
+            probes.add(executor.submit(() -> {
+                try {
+                    probe.accept(ip);
+                } finally {
+                    pending.countDown();
+                }
+            }));
+        }
         try {
-            URL url = new URL("http://" + ip + "/onvif/device_service");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(500);
-            conn.setReadTimeout(500);
-            conn.setRequestMethod("GET");
-            conn.setInstanceFollowRedirects(false);
-            
-            int response = conn.getResponseCode();
-            conn.disconnect();
+            if (pending.await(timeoutMs, TimeUnit.MILLISECONDS)) return 0;
+        } catch (InterruptedException e) {
+            cancelAll(probes);
+            throw e;
+        }
+        return cancelAll(probes);
+    }
+
+    private static int cancelAll(List<Future<?>> probes) {
+        int cancelled = 0;
+        for (Future<?> future : probes) {
+            if (future.cancel(true)) cancelled++;
+        }
+        return cancelled;
+    }
+
+    private void probeHost(String ip, List<OnvifCamera> syncCameras) {
+        try {
+            throttle.acquire(ip);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (checkOnvifDevice(ip)) {
+            OnvifCamera camera = new OnvifCamera();
+            camera.setIpAddress(ip);
+            camera.setPort(80);
+            camera.setName("ONVIF Camera @ " + ip);
+            camera.setRtspUrl("rtsp://" + ip + ":554/stream1");
             
-            // ONVIF devices may return 200, 400, or 500
-            return response > 0 && response < 600;
-        } catch (Exception e) {
-            return false;
+            synchronized (syncCameras) {
+                syncCameras.add(camera);
+            }
+            Log.d(TAG, "IP scan found camera: " + ip);
         }
     }
 
+    private boolean checkOnvifDevice(String ip) {
+        int response = OnvifHttpClient.shared().probe("http://" + ip + "/onvif/device_service", 500);
+        
+        // ONVIF devices may return 200, 400, or 500
+        return response > 0 && response < 600;
+    }
+
     private String getSubnet() {
         try {
             WifiManager wifiManager = (WifiManager) context.getApplicationContext()
@@ -321,13 +313,4 @@ public class NetworkScanner {
             return null;
         }
     }
-
-    private String extractValue(String xml, String startTag, String endTag) {
-        int start = xml.indexOf(startTag);
-        if (start == -1) return null;
-        start += startTag.length();
-        int end = xml.indexOf(endTag, start);
-        if (end == -1) return null;
-        return xml.substring(start, end).trim();
-    }
 }
@@ -0,0 +1,163 @@
+package com.onvifscanner.network;
+
+import com.onvifscanner.camera.OnvifCamera;
+import com.onvifscanner.camera.StreamProfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ONVIF device-level calls for one camera: service discovery and media
+ * profiles. Service addresses are resolved once and reused.
+ */
+public class OnvifDevice {
+    private static final String GET_CAPABILITIES =
+        "<tds:GetCapabilities><tds:Category>All</tds:Category></tds:GetCapabilities>";
+    private static final String GET_PROFILES = "<trt:GetProfiles/>";
+    private static final String GET_STREAM_URI =
+        "<trt:GetStreamUri><trt:StreamSetup><tt:Stream>RTP-Unicast</tt:Stream>"
+        + "<tt:Transport><tt:Protocol>RTSP</tt:Protocol></tt:Transport></trt:StreamSetup>"
+        + "<trt:ProfileToken>%s</trt:ProfileToken></trt:GetStreamUri>";
+    private static final String GET_SNAPSHOT_URI =
+        "<trt:GetSnapshotUri><trt:ProfileToken>%s</trt:ProfileToken></trt:GetSnapshotUri>";
+
+    private final OnvifCamera camera;
+    private final OnvifHttpClient http;
+    private String mediaUrl;
+    private String ptzUrl;
+    private String eventsUrl;
+    private boolean capabilitiesLoaded;
+
+    public OnvifDevice(OnvifCamera camera) {
+        this(camera, OnvifHttpClient.shared());
+    }
+
+    public OnvifDevice(OnvifCamera camera, OnvifHttpClient http) {
+        this.camera = camera;
+        this.http = http;
+    }
+
+    public OnvifCamera getCamera() {
+        return camera;
+    }
+
+    public String getDeviceServiceUrl() {
+        int port = camera.getPort() > 0 ? camera.getPort() : 80;
+        return "http://" + camera.getIpAddress() + (port == 80 ? "" : ":" + port) + "/onvif/device_service";
+    }
+
+    public synchronized String getMediaUrl() throws IOException {
+        loadCapabilities();
+        return mediaUrl;
+    }
+
+    public synchronized String getPtzUrl() throws IOException {
+        loadCapabilities();
+        return ptzUrl;
+    }
+
+    public synchronized String getEventsUrl() throws IOException {
+        loadCapabilities();
+        return eventsUrl;
+    }
+
+    public List<String> getProfileTokens() throws IOException {
+        String xml = call(getMediaUrl(), GET_PROFILES);
+        List<String> tokens = new ArrayList<>();
+        for (String profile : SoapXml.sections(xml, "Profiles")) {
+            String token = SoapXml.attribute(profile, "token");
+            if (token != null) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Media profiles with their video encoder settings and RTSP URIs. Profiles
+     * without video or whose URI can't be resolved are left out.
+     */
+    public List<StreamProfile> getStreamProfiles() throws IOException {
+        String mediaUrl = getMediaUrl();
+        String xml = call(mediaUrl, GET_PROFILES);
+        List<StreamProfile> profiles = new ArrayList<>();
+        for (String section : SoapXml.sections(xml, "Profiles")) {
+            String token = SoapXml.attribute(section, "token");
+            String encoder = SoapXml.section(section, "VideoEncoderConfiguration");
+            if (token == null || encoder == null) continue;
+
+            StreamProfile profile = new StreamProfile();
+            profile.setToken(token);
+            profile.setName(SoapXml.element(section, "Name"));
+            profile.setEncoding(SoapXml.element(encoder, "Encoding"));
+            profile.setWidth(parseInt(SoapXml.element(encoder, "Width")));
+            profile.setHeight(parseInt(SoapXml.element(encoder, "Height")));
+            profile.setFrameRate(parseInt(SoapXml.element(encoder, "FrameRateLimit")));
+            profile.setBitrateKbps(parseInt(SoapXml.element(encoder, "BitrateLimit")));
+
+            try {
+                String uriXml = call(mediaUrl, String.format(GET_STREAM_URI, token));
+                String uri = SoapXml.element(uriXml, "Uri");
+                // Query strings (e.g. channel=1&subtype=0) arrive entity-escaped
+                profile.setRtspUrl(uri != null ? uri.replace("&amp;", "&") : null);
+            } catch (IOException e) {
+                continue;
+            }
+            if (profile.getRtspUrl() != null) {
+                profiles.add(profile);
+            }
+        }
+        return profiles;
+    }
+
+    /** HTTP URL of a JPEG snapshot for the profile, or null if the camera doesn't offer one. */
+    public String getSnapshotUri(String profileToken) throws IOException {
+        String xml = call(getMediaUrl(), String.format(GET_SNAPSHOT_URI, profileToken));
+        String uri = SoapXml.element(xml, "Uri");
+        return uri != null ? uri.replace("&amp;", "&") : null;
+    }
+
+    /** Sends a SOAP body and returns the response document, failing on HTTP errors and faults. */
+    public String call(String url, String bodyXml) throws IOException {
+        return call(url, "", bodyXml);
+    }
+
+    public String call(String url, String extraHeader, String bodyXml) throws IOException {
+        OnvifHttpClient.Response response = http.soap(url, extraHeader, bodyXml,
+            camera.getUsername(), camera.getPassword(), OnvifHttpClient.DEFAULT_TIMEOUT_MS);
+        String xml = response.bodyAsString();
+        if (!response.isSuccessful()) {
+            String reason = SoapXml.element(xml, "Text");
+            throw new IOException("HTTP " + response.code + (reason != null ? ": " + reason : ""));
+        }
+        return xml;
+    }
+
+    private void loadCapabilities() throws IOException {
+        if (capabilitiesLoaded) return;
+        String xml = call(getDeviceServiceUrl(), GET_CAPABILITIES);
+        mediaUrl = serviceAddress(xml, "Media");
+        ptzUrl = serviceAddress(xml, "PTZ");
+        eventsUrl = serviceAddress(xml, "Events");
+        if (mediaUrl == null) {
+            // Media is mandatory; fall back to the device service, which many cameras also accept
+            mediaUrl = getDeviceServiceUrl();
+        }
+        capabilitiesLoaded = true;
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) return 0;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String serviceAddress(String xml, String service) {
+        String section = SoapXml.section(xml, service);
+        return section != null ? SoapXml.element(section, "XAddr") : null;
+    }
+}
@@ -0,0 +1,368 @@
+package com.onvifscanner.network;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Shared HTTP client for ONVIF SOAP and snapshot traffic.
+ *
+ * Connections are never disconnect()ed: bodies are read to the end so the
+ * platform keeps the socket alive for the next request to the same host, and a
+ * per-host permit count keeps that pool small. Each host also remembers its last
+ * Digest challenge and clock offset, so authenticated requests normally succeed
+ * on the first attempt instead of after a 401 round trip. Unauthenticated
+ * probes of hosts not yet known, such as most of an IP sweep, work on scratch
+ * state that is only kept if the host answers.
+ */
+public class OnvifHttpClient {
+    private static final String TAG = "OnvifHttpClient";
+    private static final int MAX_CONNECTIONS_PER_HOST = 2;
+    static final int DEFAULT_TIMEOUT_MS = 5000;
+    static final String SOAP_CONTENT_TYPE = "application/soap+xml; charset=utf-8";
+
+    private static final String SOAP_ENVELOPE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" " +
+        "xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\" " +
+        "xmlns:trt=\"http://www.onvif.org/ver10/media/wsdl\" " +
+        "xmlns:tptz=\"http://www.onvif.org/ver20/ptz/wsdl\" " +
+        "xmlns:tev=\"http://www.onvif.org/ver10/events/wsdl\" " +
+        "xmlns:wsnt=\"http://docs.oasis-open.org/wsn/b-2\" " +
+        "xmlns:wsa=\"http://www.w3.org/2005/08/addressing\" " +
+        "xmlns:tt=\"http://www.onvif.org/ver10/schema\">" +
+        "<s:Header>%s</s:Header>" +
+        "<s:Body>%s</s:Body>" +
+        "</s:Envelope>";
+
+    private static final String GET_SYSTEM_DATE_AND_TIME = "<tds:GetSystemDateAndTime/>";
+
+    private static final OnvifHttpClient SHARED = new OnvifHttpClient();
+
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    public static OnvifHttpClient shared() {
+        return SHARED;
+    }
+
+    public static class Response {
+        public final int code;
+        public final byte[] body;
+        public final String contentType;
+        final String wwwAuthenticate;
+
+        Response(int code, byte[] body, String contentType, String wwwAuthenticate) {
+            this.code = code;
+            this.body = body;
+            this.contentType = contentType;
+            this.wwwAuthenticate = wwwAuthenticate;
+        }
+
+        public boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        public String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    public Response get(String url, String username, String password) throws IOException {
+        URL target = new URL(url);
+        return execute(hostState(target), "GET", target, null, null, username, password, DEFAULT_TIMEOUT_MS, false);
+    }
+
+    /**
+     * Sends a SOAP 1.2 request. The body is wrapped in an envelope carrying a
+     * UsernameToken stamped with the device's clock; HTTP Digest is answered too.
+     */
+    public Response soap(String url, String bodyXml, String username, String password) throws IOException {
+        return soap(url, bodyXml, username, password, DEFAULT_TIMEOUT_MS);
+    }
+
+    public Response soap(String url, String bodyXml, String username, String password,
+                         int timeoutMs) throws IOException {
+        return soap(url, "", bodyXml, username, password, timeoutMs);
+    }
+
+    /** As above, with extra SOAP header blocks such as WS-Addressing Action and To. */
+    public Response soap(String url, String extraHeader, String bodyXml, String username, String password,
+                         int timeoutMs) throws IOException {
+        URL target = new URL(url);
+        // Built per attempt: a Digest retry resending the same UsernameToken would be rejected as a replay
+        Supplier<byte[]> envelope = () -> envelope(target, extraHeader, bodyXml, username, password);
+        return execute(hostState(target), "POST", target, envelope, SOAP_CONTENT_TYPE, username, password,
+            timeoutMs, false);
+    }
+
+    byte[] envelope(URL target, String extraHeader, String bodyXml, String username, String password) {
+        String header = extraHeader;
+        if (username != null && !username.isEmpty()) {
+            syncClock(target);
+            header = WsSecurity.usernameToken(username, password, serverTimeMillis(target)) + header;
+        }
+        return String.format(SOAP_ENVELOPE, header, bodyXml).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Learns the device clock for target's host unless that has been done,
+     * waiting for a sync another thread is running. Callers that must not
+     * block, such as the event poll, run this first on a thread that may.
+     */
+    void syncClock(URL target) {
+        HostState state = hostState(target);
+        if (state.clockSyncClaimed.compareAndSet(false, true)) {
+            syncClock(target, state);
+        } else {
+            awaitClock(state);
+        }
+    }
+
+    /**
+     * Lightweight reachability check used by the IP sweep; returns -1 when
+     * nothing answers. The status line is enough, so a slow body doesn't fail it.
+     */
+    public int probe(String url, int timeoutMs) {
+        try {
+            URL target = new URL(url);
+            String key = hostKey(target);
+            HostState known = hosts.get(key);
+            // A new host only gets an entry once it answers
+            HostState state = known != null ? known : new HostState();
+            int code = execute(state, "GET", target, null, null, null, null, timeoutMs, true).code;
+            if (known == null) {
+                hosts.putIfAbsent(key, state);
+            }
+            return code;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public long serverTimeMillis(URL url) {
+        return System.currentTimeMillis() + hostState(url).clockOffsetMs;
+    }
+
+    private void syncClock(URL url, HostState state) {
+        try {
+            byte[] envelope = String.format(SOAP_ENVELOPE, "", GET_SYSTEM_DATE_AND_TIME)
+                .getBytes(StandardCharsets.UTF_8);
+            long sentAt = System.currentTimeMillis();
+            Response response = execute(state, "POST", url, () -> envelope, SOAP_CONTENT_TYPE, null, null,
+                DEFAULT_TIMEOUT_MS, false);
+            long receivedAt = System.currentTimeMillis();
+            long deviceTime = parseUtcDateTime(response.bodyAsString());
+            if (deviceTime > 0) {
+                state.clockOffsetMs = deviceTime - (sentAt + receivedAt) / 2;
+                Log.d(TAG, url.getHost() + " clock offset " + state.clockOffsetMs + " ms");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "GetSystemDateAndTime failed for " + url.getHost() + ": " + e.getMessage());
+        } finally {
+            // Whatever happened, don't ask again or keep anyone waiting: the Date header keeps the offset fresh
+            state.clockSynced.countDown();
+        }
+    }
+
+    private static void awaitClock(HostState state) {
+        try {
+            // Another request is already asking the device; its offset is worth the wait
+            state.clockSynced.await(DEFAULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * body, when not null, is asked for once per attempt. With statusOnly set,
+     * a failure reading the response body leaves the body empty instead of
+     * failing the request.
+     */
+    private Response execute(HostState state, String method, URL url, Supplier<byte[]> body, String contentType,
+                             String username, String password, int timeoutMs, boolean statusOnly)
+            throws IOException {
+        // Before taking a permit: building an envelope may sync the clock, which needs one itself
+        byte[] payload = body != null ? body.get() : null;
+        try {
+            state.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for connection to " + url.getHost());
+        }
+        try {
+            boolean hasCredentials = username != null && !username.isEmpty();
+            String uri = url.getFile().isEmpty() ? "/" : url.getFile();
+
+            DigestChallenge used = hasCredentials ? state.challenge() : null;
+            Response response = send(state, method, url, payload, contentType,
+                state.authorization(used, method, uri, username, password), timeoutMs, statusOnly);
+
+            // Unknown or stale challenge: learn it and retry once
+            if (response.code == 401 && hasCredentials && state.updateChallenge(response.wwwAuthenticate, used)) {
+                response = send(state, method, url, body != null ? body.get() : null, contentType,
+                    state.authorization(state.challenge(), method, uri, username, password), timeoutMs, statusOnly);
+            }
+            return response;
+        } finally {
+            state.permits.release();
+        }
+    }
+
+    private Response send(HostState state, String method, URL url, byte[] body, String contentType,
+                          String authorization, int timeoutMs, boolean statusOnly) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(timeoutMs);
+        conn.setReadTimeout(timeoutMs);
+        conn.setRequestMethod(method);
+        conn.setInstanceFollowRedirects(false);
+        conn.setRequestProperty("Connection", "keep-alive");
+        if (authorization != null) {
+            conn.setRequestProperty("Authorization", authorization);
+        }
+        if (body != null) {
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setRequestProperty("Content-Type", contentType);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        long sentAt = System.currentTimeMillis();
+        int code = conn.getResponseCode();
+        long serverDate = conn.getHeaderFieldDate("Date", 0);
+        if (serverDate > 0) {
+            // Date has one-second resolution; only correct offsets that drift further
+            long offset = serverDate - (sentAt + System.currentTimeMillis()) / 2;
+            if (Math.abs(offset - state.clockOffsetMs) > 1000) {
+                state.clockOffsetMs = offset;
+            }
+        }
+
+        // Reading to EOF and closing, without disconnect(), returns the socket to the pool
+        byte[] data;
+        try {
+            InputStream in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            data = readFully(in);
+        } catch (IOException e) {
+            if (!statusOnly) throw e;
+            // Half-read, so the socket can't go back to the pool
+            conn.disconnect();
+            data = new byte[0];
+        }
+
+        return new Response(code, data, conn.getContentType(), digestHeader(conn));
+    }
+
+    private static String digestHeader(HttpURLConnection conn) {
+        // Header names are case-insensitive and servers disagree on their spelling
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            if (!"WWW-Authenticate".equalsIgnoreCase(header.getKey())) continue;
+            for (String challenge : header.getValue()) {
+                if (challenge.regionMatches(true, 0, "Digest", 0, 6)) return challenge;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        if (in == null) return new byte[0];
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    static long parseUtcDateTime(String xml) {
+        int utc = xml.indexOf("UTCDateTime");
+        if (utc == -1) return 0;
+        String section = xml.substring(utc);
+        try {
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            calendar.clear();
+            calendar.set(
+                Integer.parseInt(SoapXml.element(section, "Year")),
+                Integer.parseInt(SoapXml.element(section, "Month")) - 1,
+                Integer.parseInt(SoapXml.element(section, "Day")),
+                Integer.parseInt(SoapXml.element(section, "Hour")),
+                Integer.parseInt(SoapXml.element(section, "Minute")),
+                Integer.parseInt(SoapXml.element(section, "Second")));
+            return calendar.getTimeInMillis();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private HostState hostState(URL url) {
+        return hosts.computeIfAbsent(hostKey(url), k -> new HostState());
+    }
+
+    /** Package-private for tests. */
+    int knownHosts() {
+        return hosts.size();
+    }
+
+    private static String hostKey(URL url) {
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        return url.getHost() + ":" + port;
+    }
+
+    private static class HostState {
+        final Semaphore permits = new Semaphore(MAX_CONNECTIONS_PER_HOST);
+        volatile long clockOffsetMs;
+        // The first request to claim the sync asks the device; the rest wait for it
+        final AtomicBoolean clockSyncClaimed = new AtomicBoolean();
+        final CountDownLatch clockSynced = new CountDownLatch(1);
+        private DigestChallenge challenge;
+        private int nonceCount;
+
+        synchronized DigestChallenge challenge() {
+            return challenge;
+        }
+
+        synchronized String authorization(DigestChallenge with, String method, String uri,
+                                          String username, String password) {
+            if (with == null) return null;
+            // A request that raced a challenge change still counts from 1 on the nonce it uses
+            return with.authorization(method, uri, username, password, with == challenge ? ++nonceCount : 1);
+        }
+
+        /**
+         * Learns the challenge from a 401 to a request signed with used (or not
+         * signed). Returns true if a retry with it is worth making: it does when
+         * the request went out unsigned or on another nonce, which is also the
+         * case for concurrent requests that all lost to the same new nonce.
+         */
+        synchronized boolean updateChallenge(String header, DigestChallenge used) {
+            DigestChallenge next = DigestChallenge.parse(header);
+            if (next == null) return false;
+            if (challenge == null || !next.nonce.equals(challenge.nonce)) {
+                challenge = next;
+                nonceCount = 0;
+            }
+            return used == null || !next.nonce.equals(used.nonce);
+        }
+    }
+}
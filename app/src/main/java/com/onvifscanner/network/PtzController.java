@@ -0,0 +1,246 @@
+package com.onvifscanner.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ONVIF PTZ control for one camera.
+ *
+ * Gesture events arrive far faster than a camera answers SOAP requests, so moves
+ * are coalesced: at most one request is in flight, and when it completes only the
+ * newest requested velocity is sent. Stale intermediate velocities are dropped.
+ *
+ * Each move carries a short Timeout and is re-sent while it is held, so a lost
+ * Stop (dropped Wi-Fi, app killed) leaves the camera turning for a second at
+ * most. Presets run on their own thread and never hold up joystick input.
+ */
+public class PtzController {
+    private static final String TAG = "PtzController";
+
+    private static final String CONTINUOUS_MOVE =
+        "<tptz:ContinuousMove><tptz:ProfileToken>%s</tptz:ProfileToken>" +
+        "<tptz:Velocity>" +
+        "<tt:PanTilt x=\"%.2f\" y=\"%.2f\"/>" +
+        "<tt:Zoom x=\"%.2f\"/>" +
+        "</tptz:Velocity><tptz:Timeout>PT%dS</tptz:Timeout></tptz:ContinuousMove>";
+    private static final String STOP =
+        "<tptz:Stop><tptz:ProfileToken>%s</tptz:ProfileToken>" +
+        "<tptz:PanTilt>true</tptz:PanTilt><tptz:Zoom>true</tptz:Zoom></tptz:Stop>";
+    private static final String GET_PRESETS =
+        "<tptz:GetPresets><tptz:ProfileToken>%s</tptz:ProfileToken></tptz:GetPresets>";
+    private static final String GOTO_PRESET =
+        "<tptz:GotoPreset><tptz:ProfileToken>%s</tptz:ProfileToken>" +
+        "<tptz:PresetToken>%s</tptz:PresetToken></tptz:GotoPreset>";
+
+    private static final int MOVE_TIMEOUT_SECONDS = 1;
+    // Re-send a held move before its Timeout lapses, leaving room for one slow round trip
+    private static final long MOVE_REFRESH_MS = 600;
+
+    public interface Callback<T> {
+        void onResult(T result);
+        void onError(String error);
+    }
+
+    public static class Preset {
+        public final String token;
+        public final String name;
+
+        Preset(String token, String name) {
+            this.token = token;
+            this.name = name;
+        }
+    }
+
+    private final OnvifDevice device;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService presetExecutor = Executors.newSingleThreadExecutor();
+
+    // Guarded by this
+    private float[] pendingVelocity;
+    private boolean pendingStop;
+    private boolean draining;
+
+    // Only touched by drain and refreshMove, which both run on executor
+    private float[] lastSentVelocity;
+    private long lastSentNanos;
+    private ScheduledFuture<?> refreshTask;
+
+    // Guarded by resolveLock, which is never held while this is
+    private final Object resolveLock = new Object();
+    private String ptzUrl;
+    private String profileToken;
+
+    public PtzController(OnvifDevice device) {
+        this.device = device;
+    }
+
+    /** Requests a continuous move; values are normalized to [-1, 1]. */
+    public synchronized void move(float pan, float tilt, float zoom) {
+        pendingVelocity = new float[] {clamp(pan), clamp(tilt), clamp(zoom)};
+        pendingStop = false;
+        scheduleDrain();
+    }
+
+    public synchronized void stop() {
+        pendingVelocity = null;
+        pendingStop = true;
+        scheduleDrain();
+    }
+
+    public void loadPresets(Callback<List<Preset>> callback) {
+        presetExecutor.execute(() -> {
+            try {
+                String[] target = ensureResolved();
+                String xml = device.call(target[0], String.format(GET_PRESETS, target[1]));
+                List<Preset> presets = new ArrayList<>();
+                for (String section : SoapXml.sections(xml, "Preset")) {
+                    String token = SoapXml.attribute(section, "token");
+                    String name = SoapXml.element(section, "Name");
+                    if (token != null) {
+                        presets.add(new Preset(token, name != null ? name : token));
+                    }
+                }
+                callback.onResult(presets);
+            } catch (IOException e) {
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    public void gotoPreset(String presetToken, Callback<Void> callback) {
+        presetExecutor.execute(() -> {
+            try {
+                String[] target = ensureResolved();
+                device.call(target[0], String.format(GOTO_PRESET, target[1], presetToken));
+                callback.onResult(null);
+            } catch (IOException e) {
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stops the camera and shuts the executors down. A move still in flight
+     * finishes, and the Stop goes out after it; shutdown() lets queued work run.
+     */
+    public void release() {
+        stop();
+        executor.shutdown();
+        presetExecutor.shutdown();
+    }
+
+    private void scheduleDrain() {
+        if (!draining && !executor.isShutdown()) {
+            draining = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            float[] velocity;
+            boolean stop;
+            synchronized (this) {
+                velocity = pendingVelocity;
+                stop = pendingStop;
+                pendingVelocity = null;
+                pendingStop = false;
+                if (velocity == null && !stop) {
+                    draining = false;
+                    return;
+                }
+                // The camera keeps moving until the Timeout, so only the refresh repeats a move
+                if (velocity != null && lastSentVelocity != null && sameVelocity(velocity, lastSentVelocity)
+                        && System.nanoTime() - lastSentNanos < TimeUnit.MILLISECONDS.toNanos(MOVE_REFRESH_MS)) {
+                    continue;
+                }
+            }
+
+            if (refreshTask != null) {
+                refreshTask.cancel(false);
+                refreshTask = null;
+            }
+            lastSentVelocity = null;
+            try {
+                String[] target = ensureResolved();
+                if (stop) {
+                    sendStop(target);
+                } else {
+                    device.call(target[0], String.format(Locale.US, CONTINUOUS_MOVE,
+                        target[1], velocity[0], velocity[1], velocity[2], MOVE_TIMEOUT_SECONDS));
+                    lastSentVelocity = velocity;
+                    lastSentNanos = System.nanoTime();
+                    try {
+                        refreshTask = executor.schedule(this::refreshMove, MOVE_REFRESH_MS, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // Released while the move was in flight; the loop goes on to the Stop it queued
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "PTZ command failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** A failed Stop would leave the camera moving until the Timeout, so it gets one more try. */
+    private void sendStop(String[] target) throws IOException {
+        String body = String.format(STOP, target[1]);
+        try {
+            device.call(target[0], body);
+        } catch (IOException e) {
+            Log.w(TAG, "PTZ stop failed, retrying: " + e.getMessage());
+            device.call(target[0], body);
+        }
+    }
+
+    /** Re-queues the held move unless newer input is already waiting. */
+    private void refreshMove() {
+        float[] velocity = lastSentVelocity;
+        refreshTask = null;
+        if (velocity == null) return;
+        synchronized (this) {
+            if (pendingVelocity == null && !pendingStop) {
+                pendingVelocity = velocity;
+                scheduleDrain();
+            }
+        }
+    }
+
+    /** Returns {PTZ service URL, profile token}, resolving them on first use. */
+    private String[] ensureResolved() throws IOException {
+        synchronized (resolveLock) {
+            if (ptzUrl == null) {
+                String url = device.getPtzUrl();
+                if (url == null) {
+                    throw new IOException("Camera has no PTZ service");
+                }
+                List<String> tokens = device.getProfileTokens();
+                if (tokens.isEmpty()) {
+                    throw new IOException("Camera has no media profiles");
+                }
+                profileToken = tokens.get(0);
+                ptzUrl = url;
+            }
+            return new String[] {ptzUrl, profileToken};
+        }
+    }
+
+    private static boolean sameVelocity(float[] a, float[] b) {
+        // Below the %.2f precision sent on the wire
+        return Math.abs(a[0] - b[0]) < 0.01f && Math.abs(a[1] - b[1]) < 0.01f && Math.abs(a[2] - b[2]) < 0.01f;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(-1f, Math.min(1f, value));
+    }
+}
@@ -0,0 +1,75 @@
+package com.onvifscanner.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket: refills at a fixed rate up to a burst capacity.
+ */
+public class RateLimiter {
+    private final double permitsPerSecond;
+    private final double capacity;
+    private final LongSupplier clock;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    /** Takes the time from clock, in nanoseconds; acquire() still sleeps in real time. */
+    RateLimiter(double permitsPerSecond, int burst, LongSupplier clock) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = burst;
+        this.clock = clock;
+        this.tokens = burst;
+        this.lastRefillNanos = clock.getAsLong();
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                waitNanos = nanosForOneToken();
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 100_000));
+        }
+    }
+
+    public synchronized long nanosUntilAvailable() {
+        refill();
+        return tokens >= 1 ? 0 : nanosForOneToken();
+    }
+
+    /** Returns a permit taken by tryAcquire() that ended up unused. */
+    public synchronized void refund() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    private long nanosForOneToken() {
+        return (long) ((1 - tokens) / permitsPerSecond * 1_000_000_000L);
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * permitsPerSecond / 1_000_000_000L);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,436 @@
+package com.onvifscanner.network;
+
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal RTSP client that pulls the H.264 elementary stream over TCP
+ * (interleaved RTP) and hands out whole access units in Annex-B form, without
+ * decoding. The pre-event recorder uses it as a session of its own next to
+ * the player's, so the camera sends a watched stream twice while recording.
+ */
+public class RtspClient {
+    private static final String TAG = "RtspClient";
+    private static final int DEFAULT_RTSP_PORT = 554;
+    private static final int TIMEOUT_MS = 10_000;
+    private static final long KEEPALIVE_INTERVAL_MS = 30_000;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private static final int NAL_IDR = 5;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    private static final int NAL_STAP_A = 24;
+    private static final int NAL_FU_A = 28;
+
+    public interface Listener {
+        /** Parameter sets, each with a start code; called before the first frame and on change. */
+        void onFormat(byte[] sps, byte[] pps);
+
+        /** The buffer is reused once this returns; copy what you keep. */
+        void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyFrame);
+
+        void onError(String error);
+
+        /** Called last, on the reader thread, whether the session ended or failed. */
+        void onClosed();
+    }
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final Listener listener;
+
+    // Written by the reader thread, closed by stop() from any thread
+    private volatile Socket socket;
+    private OutputStream out;
+    private DataInputStream in;
+    private Thread thread;
+    private volatile boolean running;
+
+    private int cseq = 0;
+    private String session;
+    private DigestChallenge challenge;
+    private int nonceCount;
+    private boolean basicAuth;
+
+    // Access unit assembly, reused for the whole session
+    private byte[] unit = new byte[256 * 1024];
+    private int unitLength;
+    private boolean unitKeyFrame;
+    private long unitTimestamp = -1;
+    private byte[] sps;
+    private byte[] pps;
+    private long firstTimestamp = -1;
+    private long lastTimestamp;
+    private long timestampHigh;
+
+    public RtspClient(String url, String username, String password, Listener listener) {
+        this.url = url;
+        this.username = username != null ? username : "";
+        this.password = password != null ? password : "";
+        this.listener = listener;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "rtsp-tee");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Closes the session without waiting for the reader thread, so it is safe on
+     * the main thread. Callbacks can still arrive until onClosed().
+     */
+    public void stop() {
+        running = false;
+        try {
+            Socket current = socket;
+            if (current != null) current.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void run() {
+        try {
+            URI uri = URI.create(url);
+            socket = new Socket();
+            // Either stop() saw the socket and closes it, or this sees the flag
+            if (!running) return;
+            socket.connect(new InetSocketAddress(uri.getHost(),
+                uri.getPort() > 0 ? uri.getPort() : DEFAULT_RTSP_PORT), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            out = socket.getOutputStream();
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+
+            String baseUrl = stripCredentials(url);
+            Response describe = request("DESCRIBE", baseUrl, "Accept: application/sdp\r\n");
+            String contentBase = describe.headers.containsKey("content-base")
+                ? describe.headers.get("content-base") : baseUrl;
+            String control = parseSdp(describe.body);
+            if (control == null) {
+                throw new IOException("No H.264 video track in SDP");
+            }
+
+            Response setup = request("SETUP", resolveControl(contentBase, control),
+                "Transport: RTP/AVP/TCP;unicast;interleaved=0-1\r\n");
+            session = setup.headers.get("session");
+            if (session == null) {
+                throw new IOException("SETUP returned no session");
+            }
+            session = session.split(";")[0].trim();
+
+            request("PLAY", contentBase, "Range: npt=0.000-\r\n");
+            if (sps != null && pps != null) {
+                listener.onFormat(withStartCode(sps), withStartCode(pps));
+            }
+            readInterleaved(contentBase);
+
+        } catch (Exception e) {
+            if (running) {
+                Log.w(TAG, "RTSP tee failed: " + e.getMessage());
+                listener.onError(e.getMessage());
+            }
+        } finally {
+            running = false;
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException ignored) {
+            }
+            listener.onClosed();
+        }
+    }
+
+    private void readInterleaved(String contentBase) throws IOException {
+        byte[] packet = new byte[65536];
+        long lastKeepalive = System.currentTimeMillis();
+
+        while (running) {
+            if (System.currentTimeMillis() - lastKeepalive > KEEPALIVE_INTERVAL_MS) {
+                // Answer arrives inline and is skipped below
+                send("GET_PARAMETER", contentBase, "");
+                lastKeepalive = System.currentTimeMillis();
+            }
+
+            int marker = in.read();
+            if (marker == -1) throw new IOException("Stream closed");
+            if (marker != '$') {
+                // Interleaved RTSP response (keepalive answer): skip its header and body
+                skipRtspMessage(marker);
+                continue;
+            }
+            int channel = in.readUnsignedByte();
+            int length = in.readUnsignedShort();
+            in.readFully(packet, 0, length);
+            if (channel == 0) {
+                onRtpPacket(packet, length);
+            }
+        }
+    }
+
+    private void onRtpPacket(byte[] packet, int length) {
+        if (length < 12) return;
+        int csrcCount = packet[0] & 0x0f;
+        boolean hasExtension = (packet[0] & 0x10) != 0;
+        boolean hasPadding = (packet[0] & 0x20) != 0;
+        boolean markerBit = (packet[1] & 0x80) != 0;
+        long timestamp = ((packet[4] & 0xffL) << 24) | ((packet[5] & 0xff) << 16)
+            | ((packet[6] & 0xff) << 8) | (packet[7] & 0xff);
+
+        int offset = 12 + 4 * csrcCount;
+        if (hasExtension && offset + 4 <= length) {
+            int extensionWords = ((packet[offset + 2] & 0xff) << 8) | (packet[offset + 3] & 0xff);
+            offset += 4 + 4 * extensionWords;
+        }
+        int end = hasPadding ? length - (packet[length - 1] & 0xff) : length;
+        if (offset >= end) return;
+
+        if (unitTimestamp != -1 && timestamp != unitTimestamp) {
+            emitUnit();
+        }
+        unitTimestamp = timestamp;
+
+        int nalType = packet[offset] & 0x1f;
+        if (nalType == NAL_STAP_A) {
+            int pos = offset + 1;
+            while (pos + 2 <= end) {
+                int size = ((packet[pos] & 0xff) << 8) | (packet[pos + 1] & 0xff);
+                pos += 2;
+                if (pos + size > end) break;
+                appendNal(packet, pos, size, true);
+                pos += size;
+            }
+        } else if (nalType == NAL_FU_A) {
+            if (offset + 2 > end) return;
+            int fuHeader = packet[offset + 1] & 0xff;
+            boolean start = (fuHeader & 0x80) != 0;
+            if (start) {
+                // Rebuild the NAL header from the FU indicator and header
+                byte header = (byte) ((packet[offset] & 0xe0) | (fuHeader & 0x1f));
+                ensureCapacity(START_CODE.length + 1);
+                System.arraycopy(START_CODE, 0, unit, unitLength, START_CODE.length);
+                unitLength += START_CODE.length;
+                unit[unitLength++] = header;
+                if ((fuHeader & 0x1f) == NAL_IDR) unitKeyFrame = true;
+            }
+            appendBytes(packet, offset + 2, end - offset - 2);
+        } else {
+            appendNal(packet, offset, end - offset, true);
+        }
+
+        if (markerBit) {
+            emitUnit();
+        }
+    }
+
+    private void appendNal(byte[] data, int offset, int length, boolean withStartCode) {
+        int nalType = data[offset] & 0x1f;
+        if (nalType == NAL_SPS || nalType == NAL_PPS) {
+            byte[] parameterSet = Arrays.copyOfRange(data, offset, offset + length);
+            byte[] current = nalType == NAL_SPS ? sps : pps;
+            if (!Arrays.equals(current, parameterSet)) {
+                if (nalType == NAL_SPS) sps = parameterSet; else pps = parameterSet;
+                if (sps != null && pps != null) {
+                    listener.onFormat(withStartCode(sps), withStartCode(pps));
+                }
+            }
+        }
+        if (nalType == NAL_IDR) unitKeyFrame = true;
+        if (withStartCode) {
+            appendBytes(START_CODE, 0, START_CODE.length);
+        }
+        appendBytes(data, offset, length);
+    }
+
+    private void appendBytes(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, unit, unitLength, length);
+        unitLength += length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (unitLength + extra > unit.length) {
+            unit = Arrays.copyOf(unit, Math.max(unit.length * 2, unitLength + extra));
+        }
+    }
+
+    private void emitUnit() {
+        if (unitLength > 0) {
+            listener.onAccessUnit(unit, unitLength, toPresentationUs(unitTimestamp), unitKeyFrame);
+        }
+        unitLength = 0;
+        unitKeyFrame = false;
+        unitTimestamp = -1;
+    }
+
+    /** 90 kHz RTP clock to microseconds since the first frame, across 32-bit wraparound. */
+    private long toPresentationUs(long timestamp) {
+        if (firstTimestamp == -1) {
+            firstTimestamp = timestamp;
+            lastTimestamp = timestamp;
+        }
+        if (timestamp < lastTimestamp && lastTimestamp - timestamp > 0x80000000L) {
+            timestampHigh += 0x100000000L;
+        }
+        lastTimestamp = timestamp;
+        return (timestampHigh + timestamp - firstTimestamp) * 1000 / 90;
+    }
+
+    private String parseSdp(String sdp) {
+        String control = null;
+        boolean inVideo = false;
+        boolean isH264 = false;
+        for (String rawLine : sdp.split("\n")) {
+            String line = rawLine.trim();
+            if (line.startsWith("m=")) {
+                if (inVideo && isH264) break;
+                inVideo = line.startsWith("m=video");
+                isH264 = false;
+                control = null;
+            } else if (inVideo && line.startsWith("a=rtpmap:")) {
+                isH264 = line.toUpperCase(Locale.US).contains("H264");
+            } else if (inVideo && line.startsWith("a=control:")) {
+                control = line.substring("a=control:".length());
+            } else if (inVideo && line.startsWith("a=fmtp:")) {
+                int idx = line.indexOf("sprop-parameter-sets=");
+                if (idx != -1) {
+                    String sets = line.substring(idx + "sprop-parameter-sets=".length()).split(";")[0];
+                    String[] parts = sets.split(",");
+                    if (parts.length >= 2) {
+                        sps = Base64.decode(parts[0], Base64.NO_WRAP);
+                        pps = Base64.decode(parts[1], Base64.NO_WRAP);
+                    }
+                }
+            }
+        }
+        return inVideo && isH264 ? (control != null ? control : "") : null;
+    }
+
+    private static String resolveControl(String base, String control) {
+        if (control.isEmpty() || control.equals("*")) return base;
+        if (control.startsWith("rtsp://")) return control;
+        return base.endsWith("/") ? base + control : base + "/" + control;
+    }
+
+    private static class Response {
+        int code;
+        final Map<String, String> headers = new HashMap<>();
+        String body = "";
+    }
+
+    private Response request(String method, String requestUrl, String extraHeaders) throws IOException {
+        send(method, requestUrl, extraHeaders);
+        Response response = readResponse();
+        if (response.code == 401 && !username.isEmpty()) {
+            String authenticate = response.headers.get("www-authenticate");
+            challenge = DigestChallenge.parse(authenticate);
+            nonceCount = 0;
+            basicAuth = challenge == null && authenticate != null && authenticate.startsWith("Basic");
+            send(method, requestUrl, extraHeaders);
+            response = readResponse();
+        }
+        if (response.code != 200) {
+            throw new IOException(method + " returned " + response.code);
+        }
+        return response;
+    }
+
+    private void send(String method, String requestUrl, String extraHeaders) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(' ').append(requestUrl).append(" RTSP/1.0\r\n");
+        sb.append("CSeq: ").append(++cseq).append("\r\n");
+        sb.append("User-Agent: OnvifScanner\r\n");
+        if (session != null) {
+            sb.append("Session: ").append(session).append("\r\n");
+        }
+        if (challenge != null) {
+            sb.append("Authorization: ").append(challenge.authorization(method, requestUrl,
+                username, password, ++nonceCount)).append("\r\n");
+        } else if (basicAuth) {
+            String token = Base64.encodeToString((username + ":" + password)
+                .getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+            sb.append("Authorization: Basic ").append(token).append("\r\n");
+        }
+        sb.append(extraHeaders).append("\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private Response readResponse() throws IOException {
+        Response response = new Response();
+        String status = readLine();
+        // Skip any interleaved data that raced ahead of the reply
+        while (status.isEmpty()) status = readLine();
+        String[] parts = status.split(" ");
+        response.code = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon == -1) continue;
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            // Keep the first WWW-Authenticate, typically Digest, unless a Digest follows
+            String value = line.substring(colon + 1).trim();
+            if (!response.headers.containsKey(name) || value.startsWith("Digest")) {
+                response.headers.put(name, value);
+            }
+        }
+        String length = response.headers.get("content-length");
+        if (length != null) {
+            byte[] body = new byte[Integer.parseInt(length)];
+            in.readFully(body);
+            response.body = new String(body, StandardCharsets.UTF_8);
+        }
+        return response;
+    }
+
+    private void skipRtspMessage(int firstByte) throws IOException {
+        int contentLength = 0;
+        String line = (char) firstByte + readLine();
+        while (!line.isEmpty()) {
+            if (line.toLowerCase(Locale.US).startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            line = readLine();
+        }
+        in.skipBytes(contentLength);
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') line.write(b);
+        }
+        if (b == -1 && line.size() == 0) throw new IOException("Connection closed");
+        return line.toString("UTF-8");
+    }
+
+    private static byte[] withStartCode(byte[] nal) {
+        byte[] result = new byte[START_CODE.length + nal.length];
+        System.arraycopy(START_CODE, 0, result, 0, START_CODE.length);
+        System.arraycopy(nal, 0, result, START_CODE.length, nal.length);
+        return result;
+    }
+
+    private static String stripCredentials(String rtspUrl) {
+        URI uri = URI.create(rtspUrl);
+        if (uri.getUserInfo() == null) return rtspUrl;
+        return rtspUrl.replace(uri.getRawUserInfo() + "@", "");
+    }
+}
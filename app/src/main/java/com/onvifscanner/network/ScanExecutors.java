@@ -0,0 +1,61 @@
+package com.onvifscanner.network;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor strategies for running blocking per-host probes. There is no
+ * virtual-thread mode: NetworkScanner needs WifiManager and the main Looper,
+ * so it only runs on Android, and ART has no virtual threads.
+ */
+public final class ScanExecutors {
+    public static final int DEFAULT_POOL_SIZE = 50;
+
+    public enum Mode {
+        /** Single long-lived pool of platform threads with a fixed upper bound. */
+        BOUNDED,
+        /** Unbounded cached pool; the original behaviour, kept for comparison. */
+        CACHED
+    }
+
+    private ScanExecutors() {}
+
+    public static ExecutorService create(Mode mode) {
+        return create(mode, DEFAULT_POOL_SIZE);
+    }
+
+    public static ExecutorService create(Mode mode, int poolSize) {
+        switch (mode) {
+            case CACHED:
+                return Executors.newCachedThreadPool(new ProbeThreadFactory());
+            case BOUNDED:
+            default:
+                return newBoundedExecutor(poolSize);
+        }
+    }
+
+    private static ExecutorService newBoundedExecutor(int poolSize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            poolSize, poolSize, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new ProbeThreadFactory());
+        // Idle scanners should not pin threads between scans
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static class ProbeThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "onvif-probe-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
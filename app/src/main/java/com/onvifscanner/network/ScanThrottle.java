@@ -0,0 +1,84 @@
+package com.onvifscanner.network;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces scan traffic with a global token bucket plus one bucket per /24, so a
+ * sweep never exceeds either budget however many probe threads are running.
+ */
+public class ScanThrottle {
+    public static final ScanThrottle UNLIMITED = new ScanThrottle(0, 0);
+
+    private static final int DEFAULT_GLOBAL_RATE = 200;
+    private static final int DEFAULT_SUBNET_RATE = 100;
+
+    private final RateLimiter global;
+    private final double subnetRate;
+    private final LongSupplier clock;
+    private final Map<String, RateLimiter> subnets = new ConcurrentHashMap<>();
+
+    /** Rates are packets or connections per second; 0 disables that budget. */
+    public ScanThrottle(double globalRate, double subnetRate) {
+        this(globalRate, subnetRate, System::nanoTime);
+    }
+
+    ScanThrottle(double globalRate, double subnetRate, LongSupplier clock) {
+        this.global = globalRate > 0 ? new RateLimiter(globalRate, burstFor(globalRate), clock) : null;
+        this.subnetRate = subnetRate;
+        this.clock = clock;
+    }
+
+    public static ScanThrottle createDefault() {
+        return new ScanThrottle(DEFAULT_GLOBAL_RATE, DEFAULT_SUBNET_RATE);
+    }
+
+    /**
+     * Blocks until both budgets have a permit. Nothing is held while waiting, so
+     * a thread stuck on the global budget doesn't spend its /24's permits.
+     */
+    public void acquire(String ip) throws InterruptedException {
+        while (!tryAcquire(ip)) {
+            TimeUnit.NANOSECONDS.sleep(Math.max(nanosUntilAvailable(ip), 100_000));
+        }
+    }
+
+    public boolean tryAcquire(String ip) {
+        RateLimiter subnet = subnetLimiter(ip);
+        if (subnet != null && !subnet.tryAcquire()) return false;
+        if (global != null && !global.tryAcquire()) {
+            if (subnet != null) subnet.refund();
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns a permit taken by tryAcquire(ip) that ended up unused. */
+    public void refund(String ip) {
+        RateLimiter subnet = subnetLimiter(ip);
+        if (subnet != null) subnet.refund();
+        if (global != null) global.refund();
+    }
+
+    public long nanosUntilAvailable(String ip) {
+        RateLimiter subnet = subnetLimiter(ip);
+        long wait = subnet != null ? subnet.nanosUntilAvailable() : 0;
+        if (global != null) wait = Math.max(wait, global.nanosUntilAvailable());
+        return wait;
+    }
+
+    private RateLimiter subnetLimiter(String ip) {
+        if (subnetRate <= 0) return null;
+        int dot = ip.lastIndexOf('.');
+        String key = dot == -1 ? ip : ip.substring(0, dot);
+        return subnets.computeIfAbsent(key, k -> new RateLimiter(subnetRate, burstFor(subnetRate), clock));
+    }
+
+    private static int burstFor(double rate) {
+        // A tenth of a second worth of traffic: enough to absorb scheduling jitter,
+        // small enough not to look like a flood to an IDS
+        return Math.max(1, (int) (rate / 10));
+    }
+}
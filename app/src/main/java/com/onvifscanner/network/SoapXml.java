@@ -0,0 +1,120 @@
+package com.onvifscanner.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Namespace-agnostic lookups over small SOAP documents. Devices pick their own
+ * prefixes (a:, wsa:, tt:, none...), so elements are matched by local name.
+ */
+final class SoapXml {
+
+    private SoapXml() {}
+
+    /** Text of the first element with this local name, or null. */
+    static String element(String xml, String localName) {
+        int start = findStart(xml, localName, 0);
+        if (start == -1) return null;
+        int open = xml.indexOf('>', start);
+        if (open == -1 || xml.charAt(open - 1) == '/') return null;
+        int end = xml.indexOf('<', open + 1);
+        if (end == -1) return null;
+        return xml.substring(open + 1, end).trim();
+    }
+
+    /** The first element with this local name, from its opening to its closing tag. */
+    static String section(String xml, String localName) {
+        List<String> found = sections(xml, localName, 1);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    static List<String> sections(String xml, String localName) {
+        return sections(xml, localName, Integer.MAX_VALUE);
+    }
+
+    private static List<String> sections(String xml, String localName, int limit) {
+        List<String> result = new ArrayList<>();
+        int from = 0;
+        while (result.size() < limit) {
+            int start = findStart(xml, localName, from);
+            if (start == -1) break;
+            int open = xml.indexOf('>', start);
+            if (open == -1) break;
+            if (xml.charAt(open - 1) == '/') {
+                result.add(xml.substring(start, open + 1));
+                from = open + 1;
+                continue;
+            }
+            int end = findEnd(xml, localName, open + 1);
+            if (end == -1) break;
+            result.add(xml.substring(start, end));
+            from = end;
+        }
+        return result;
+    }
+
+    /** Attribute of the opening tag at the start of a section, or null. */
+    static String attribute(String section, String name) {
+        int tagEnd = section.indexOf('>');
+        if (tagEnd == -1) return null;
+        String tag = section.substring(0, tagEnd);
+        int idx = 0;
+        while ((idx = tag.indexOf(name + "=", idx)) != -1) {
+            char before = tag.charAt(idx - 1);
+            int valueStart = idx + name.length() + 1;
+            idx = valueStart;
+            if (before != ' ' && before != ':' && before != '\t' && before != '\n') continue;
+            if (valueStart >= tag.length()) return null;
+            char quote = tag.charAt(valueStart);
+            int valueEnd = tag.indexOf(quote, valueStart + 1);
+            if (valueEnd == -1) return null;
+            return tag.substring(valueStart + 1, valueEnd);
+        }
+        return null;
+    }
+
+    /** Index of the '<' opening the first element with this local name at or after from. */
+    static int findStart(String xml, String localName, int from) {
+        while (true) {
+            int idx = xml.indexOf(localName, from);
+            if (idx == -1) return -1;
+            from = idx + localName.length();
+            if (from >= xml.length()) return -1;
+
+            int lt = xml.lastIndexOf('<', idx);
+            if (lt == -1 || xml.charAt(lt + 1) == '/') continue;
+            String prefix = xml.substring(lt + 1, idx);
+            if (!prefix.isEmpty() && !(prefix.endsWith(":") && isName(prefix, prefix.length() - 1))) {
+                continue;
+            }
+            char next = xml.charAt(from);
+            if (next == '>' || next == '/' || Character.isWhitespace(next)) return lt;
+        }
+    }
+
+    /** Index just past the closing tag of localName at or after from. */
+    private static int findEnd(String xml, String localName, int from) {
+        while (true) {
+            int idx = xml.indexOf(localName, from);
+            if (idx == -1) return -1;
+            from = idx + localName.length();
+            if (from >= xml.length()) return -1;
+
+            int lt = xml.lastIndexOf("</", idx);
+            if (lt == -1) continue;
+            String prefix = xml.substring(lt + 2, idx);
+            if (!prefix.isEmpty() && !(prefix.endsWith(":") && isName(prefix, prefix.length() - 1))) {
+                continue;
+            }
+            if (xml.charAt(from) == '>') return from + 1;
+        }
+    }
+
+    private static boolean isName(String s, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,444 @@
+package com.onvifscanner.network;
+
+import android.util.Log;
+
+import com.onvifscanner.camera.OnvifCamera;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * WS-Discovery probing: multicast on every multicast-capable interface, or
+ * directed unicast to a list of hosts on routed subnets.
+ */
+public class WsDiscovery {
+    private static final String TAG = "WsDiscovery";
+    static final int WS_DISCOVERY_PORT = 3702;
+    static final String WS_DISCOVERY_MULTICAST = "239.255.255.250";
+
+    // SOAP-over-UDP retransmission parameters for multicast messages
+    private static final int MULTICAST_UDP_REPEAT = 1;
+    private static final int UDP_MIN_DELAY = 50;
+    private static final int UDP_MAX_DELAY = 250;
+    private static final int UDP_UPPER_DELAY = 500;
+
+    // Devices delay their ProbeMatch by up to this much
+    private static final int APP_MAX_DELAY = 500;
+
+    private static final int LISTEN_WINDOW_MS = 5000;
+    private static final int DEFAULT_QUIET_INTERVAL_MS = 300;
+    private static final int RECEIVE_BUFFER_SIZE = 8192;
+    private static final byte[] XADDRS = "XAddrs".getBytes(StandardCharsets.US_ASCII);
+
+    static final String WS_DISCOVERY_PROBE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" " +
+        "xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\">\n" +
+        "<s:Header>\n" +
+        "<a:Action s:mustUnderstand=\"1\">http://schemas.xmlsoap.org/ws/2005/04/discovery/Probe</a:Action>\n" +
+        "<a:MessageID>%s</a:MessageID>\n" +
+        "<a:ReplyTo>\n" +
+        "<a:Address>http://schemas.xmlsoap.org/ws/2004/08/addressing/role/anonymous</a:Address>\n" +
+        "</a:ReplyTo>\n" +
+        "<a:To s:mustUnderstand=\"1\">urn:schemas-xmlsoap-org:ws:2005/04:discovery</a:To>\n" +
+        "</s:Header>\n" +
+        "<s:Body>\n" +
+        "<Probe xmlns=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\">\n" +
+        "<d:Types xmlns:d=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\" " +
+        "xmlns:dp0=\"http://www.onvif.org/ver10/network/wsdl\">dp0:NetworkVideoTransmitter</d:Types>\n" +
+        "</Probe>\n" +
+        "</s:Body>\n" +
+        "</s:Envelope>";
+
+    private final Random random = new Random();
+    private int quietIntervalMs = DEFAULT_QUIET_INTERVAL_MS;
+    private int expectedDevices = 0;
+    private ScanThrottle throttle = ScanThrottle.UNLIMITED;
+
+    /** Close the listen window this long after the last ProbeMatch. */
+    public void setQuietIntervalMs(int quietIntervalMs) {
+        this.quietIntervalMs = quietIntervalMs;
+    }
+
+    /** Stop as soon as this many cameras have answered; 0 means unknown. */
+    public void setExpectedDevices(int expectedDevices) {
+        this.expectedDevices = expectedDevices;
+    }
+
+    public void setThrottle(ScanThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    public List<OnvifCamera> discover() {
+        List<OnvifCamera> cameras = new ArrayList<>();
+
+        try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+             Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(WS_DISCOVERY_PORT));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            InetAddress group = InetAddress.getByName(WS_DISCOVERY_MULTICAST);
+            InetSocketAddress groupAddress = new InetSocketAddress(group, WS_DISCOVERY_PORT);
+
+            // One probe per interface, each with its own MessageID so replies can be attributed
+            List<ProbeTarget> targets = new ArrayList<>();
+            for (NetworkInterface ni : multicastInterfaces()) {
+                try {
+                    channel.join(group, ni);
+                    targets.add(new ProbeTarget(ni));
+                } catch (Exception e) {
+                    Log.w(TAG, "Could not join group on " + ni.getName() + ": " + e.getMessage());
+                }
+            }
+            if (targets.isEmpty()) {
+                // ProbeMatches are unicast, so the default route still works without membership
+                targets.add(new ProbeTarget(null));
+            }
+            Map<String, ProbeTarget> byMessageId = new HashMap<>();
+            for (ProbeTarget target : targets) {
+                byMessageId.put(target.messageId, target);
+            }
+            Log.d(TAG, "WS-Discovery joined group on " + targets.size() + " interface(s)");
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+            byte[] scratch = new byte[RECEIVE_BUFFER_SIZE];
+            long startTime = System.currentTimeMillis();
+            long lastSend = startTime;
+            long lastMatch = 0;
+            int responseCount = 0;
+
+            while (true) {
+                long now = System.currentTimeMillis();
+                long nextSend = Long.MAX_VALUE;
+                for (ProbeTarget target : targets) {
+                    if (target.sendsLeft > 0 && target.nextSendAt <= now
+                            && send(channel, target, groupAddress)) {
+                        lastSend = now;
+                    }
+                    if (target.sendsLeft > 0) {
+                        nextSend = Math.min(nextSend, target.nextSendAt);
+                    }
+                }
+
+                // Devices answer within APP_MAX_DELAY of a probe; after that, wait
+                // only for the response rate to decay
+                long deadline = Math.max(lastSend + APP_MAX_DELAY, lastMatch + quietIntervalMs);
+                deadline = Math.min(deadline, startTime + LISTEN_WINDOW_MS);
+                if (nextSend == Long.MAX_VALUE && now >= deadline) break;
+                if (expectedDevices > 0 && cameras.size() >= expectedDevices) break;
+
+                long wait = Math.min(deadline, nextSend) - now;
+                if (selector.select(Math.max(1, wait)) == 0) continue;
+                selector.selectedKeys().clear();
+
+                SocketAddress from;
+                while (true) {
+                    buffer.clear();
+                    from = channel.receive(buffer);
+                    if (from == null) break;
+                    buffer.flip();
+                    responseCount++;
+
+                    // Cheap byte-level filter before any String is built
+                    if (indexOf(buffer, XADDRS) == -1) continue;
+
+                    int length = buffer.remaining();
+                    buffer.get(scratch, 0, length);
+                    String responseStr = new String(scratch, 0, length, StandardCharsets.UTF_8);
+
+                    String relatesTo = SoapXml.element(responseStr, "RelatesTo");
+                    if (relatesTo != null && !byMessageId.containsKey(relatesTo)) {
+                        // Reply to another client's probe
+                        continue;
+                    }
+                    ProbeTarget origin = relatesTo != null ? byMessageId.get(relatesTo) : null;
+                    Log.d(TAG, "Received response #" + responseCount + " from " + from +
+                        (origin != null ? " via " + origin.name() : ""));
+
+                    OnvifCamera camera = parseResponse(responseStr);
+                    if (camera != null && !containsIp(cameras, camera.getIpAddress())) {
+                        cameras.add(camera);
+                        lastMatch = System.currentTimeMillis();
+                        Log.d(TAG, "Added camera: " + camera.getIpAddress());
+                    }
+                }
+            }
+
+            Log.d(TAG, "WS-Discovery complete in " + (System.currentTimeMillis() - startTime) +
+                " ms. Responses: " + responseCount + ", Cameras: " + cameras.size());
+
+        } catch (Exception e) {
+            Log.e(TAG, "WS-Discovery error", e);
+        }
+
+        return cameras;
+    }
+
+    /**
+     * Directed probing for routed networks: unicasts a Probe to every host from one
+     * non-blocking channel, paced at packetsPerSecond, and matches replies by sender.
+     */
+    public List<OnvifCamera> probeHosts(List<InetAddress> hosts, int packetsPerSecond) {
+        List<OnvifCamera> cameras = new ArrayList<>();
+        Set<InetAddress> pending = new HashSet<>(hosts);
+        long sendIntervalNanos = 1_000_000_000L / Math.max(1, packetsPerSecond);
+
+        try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+             Selector selector = Selector.open()) {
+            channel.bind(null);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            ByteBuffer probe = toDirectBuffer(buildProbe("uuid:" + UUID.randomUUID()));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+            byte[] scratch = new byte[RECEIVE_BUFFER_SIZE];
+            long startTime = System.currentTimeMillis();
+            long nextSendNanos = System.nanoTime();
+            long lastSend = startTime;
+            long lastMatch = 0;
+            int sent = 0;
+
+            while (true) {
+                long nowNanos = System.nanoTime();
+                long throttleWaitNanos = 0;
+                while (sent < hosts.size() && nowNanos >= nextSendNanos) {
+                    InetAddress host = hosts.get(sent);
+                    if (!throttle.tryAcquire(host.getHostAddress())) {
+                        throttleWaitNanos = throttle.nanosUntilAvailable(host.getHostAddress());
+                        // Slots missed while throttled are gone; don't burst through them afterwards
+                        nextSendNanos = Math.max(nextSendNanos, nowNanos + throttleWaitNanos);
+                        break;
+                    }
+                    probe.rewind();
+                    if (channel.send(probe, new InetSocketAddress(host, WS_DISCOVERY_PORT)) == 0) {
+                        // Send buffer full, nothing went out; retry on the next pass
+                        throttle.refund(host.getHostAddress());
+                        break;
+                    }
+                    sent++;
+                    nextSendNanos += sendIntervalNanos;
+                    lastSend = System.currentTimeMillis();
+                }
+
+                long now = System.currentTimeMillis();
+                long wait;
+                if (sent < hosts.size()) {
+                    long waitNanos = Math.max(nextSendNanos - System.nanoTime(), throttleWaitNanos);
+                    wait = Math.max(1, waitNanos / 1_000_000);
+                } else {
+                    long deadline = Math.max(lastSend + APP_MAX_DELAY, lastMatch + quietIntervalMs);
+                    if (now >= deadline || pending.isEmpty()) break;
+                    wait = deadline - now;
+                }
+                if (selector.select(wait) == 0) continue;
+                selector.selectedKeys().clear();
+
+                while (true) {
+                    buffer.clear();
+                    SocketAddress from = channel.receive(buffer);
+                    if (from == null) break;
+                    InetAddress sender = ((InetSocketAddress) from).getAddress();
+                    if (!pending.remove(sender)) continue;
+                    buffer.flip();
+
+                    OnvifCamera camera = null;
+                    if (indexOf(buffer, XADDRS) != -1) {
+                        int length = buffer.remaining();
+                        buffer.get(scratch, 0, length);
+                        camera = parseResponse(new String(scratch, 0, length, StandardCharsets.UTF_8));
+                    }
+                    if (camera == null) {
+                        // Answered the probe but gave no usable XAddrs; fall back to the sender
+                        camera = new OnvifCamera();
+                        camera.setIpAddress(sender.getHostAddress());
+                        camera.setName("ONVIF Camera @ " + sender.getHostAddress());
+                        camera.setRtspUrl("rtsp://" + sender.getHostAddress() + ":554/stream1");
+                    }
+                    if (!containsIp(cameras, camera.getIpAddress())) {
+                        cameras.add(camera);
+                        lastMatch = System.currentTimeMillis();
+                        Log.d(TAG, "Directed probe found camera: " + camera.getIpAddress());
+                    }
+                }
+            }
+
+            Log.d(TAG, "Directed probe of " + hosts.size() + " hosts complete in " +
+                (System.currentTimeMillis() - startTime) + " ms. Cameras: " + cameras.size());
+
+        } catch (Exception e) {
+            Log.e(TAG, "Directed probe error", e);
+        }
+
+        return cameras;
+    }
+
+    /**
+     * Sends target's next probe if the throttle allows and schedules the repeat.
+     * Never waits: when out of tokens or send buffer, it only moves nextSendAt so
+     * the select loop keeps reading replies meanwhile. Returns whether it went out.
+     */
+    private boolean send(DatagramChannel channel, ProbeTarget target, InetSocketAddress groupAddress) {
+        if (!throttle.tryAcquire(WS_DISCOVERY_MULTICAST)) {
+            long waitNanos = throttle.nanosUntilAvailable(WS_DISCOVERY_MULTICAST);
+            target.nextSendAt = System.currentTimeMillis() + Math.max(1, waitNanos / 1_000_000);
+            return false;
+        }
+        boolean sent = false;
+        try {
+            if (target.networkInterface != null) {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, target.networkInterface);
+            }
+            target.probe.rewind();
+            if (channel.send(target.probe, groupAddress) == 0) {
+                // Send buffer full; the repeat isn't used up, retry on the next pass
+                throttle.refund(WS_DISCOVERY_MULTICAST);
+                return false;
+            }
+            sent = true;
+            Log.d(TAG, "WS-Discovery probe sent on " + target.name());
+        } catch (Exception e) {
+            Log.w(TAG, "Probe send failed on " + target.name() + ": " + e.getMessage());
+        }
+
+        // Jittered repeat schedule: first delay in [MIN, MAX], doubling up to UPPER
+        target.sendsLeft--;
+        if (target.delay == 0) {
+            target.delay = UDP_MIN_DELAY + random.nextInt(UDP_MAX_DELAY - UDP_MIN_DELAY + 1);
+        } else {
+            target.delay = Math.min(target.delay * 2, UDP_UPPER_DELAY);
+        }
+        target.nextSendAt = System.currentTimeMillis() + target.delay;
+        return sent;
+    }
+
+    static int indexOf(ByteBuffer buffer, byte[] needle) {
+        int limit = buffer.limit() - needle.length;
+        outer:
+        for (int i = buffer.position(); i <= limit; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (buffer.get(i + j) != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    static List<NetworkInterface> multicastInterfaces() {
+        List<NetworkInterface> result = new ArrayList<>();
+        try {
+            for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!ni.isUp() || ni.isLoopback() || !ni.supportsMulticast()) continue;
+                for (InetAddress address : Collections.list(ni.getInetAddresses())) {
+                    if (address instanceof Inet4Address) {
+                        result.add(ni);
+                        break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not enumerate interfaces: " + e.getMessage());
+        }
+        return result;
+    }
+
+    static String buildProbe(String messageId) {
+        return String.format(WS_DISCOVERY_PROBE, messageId);
+    }
+
+    static ByteBuffer toDirectBuffer(String message) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        return buffer;
+    }
+
+    static OnvifCamera parseResponse(String response) {
+        try {
+            if (!response.contains("XAddrs") && !response.contains("onvif") && !response.contains("NetworkVideo")) {
+                return null;
+            }
+
+            String xaddr = SoapXml.element(response, "XAddrs");
+            if (xaddr == null) {
+                xaddr = SoapXml.element(response, "Address");
+            }
+
+            if (xaddr != null && (xaddr.contains("http") || xaddr.contains("onvif"))) {
+                OnvifCamera camera = new OnvifCamera();
+
+                xaddr = xaddr.trim();
+                if (xaddr.contains(" ")) {
+                    xaddr = xaddr.split(" ")[0];
+                }
+
+                if (xaddr.startsWith("http")) {
+                    URL url = new URL(xaddr);
+                    camera.setIpAddress(url.getHost());
+                    camera.setPort(url.getPort() > 0 ? url.getPort() : 80);
+                    camera.setName("ONVIF Camera @ " + url.getHost());
+                    camera.setRtspUrl("rtsp://" + url.getHost() + ":554/stream1");
+                } else if (xaddr.contains(":")) {
+                    // Format: ip:port
+                    String[] parts = xaddr.split(":");
+                    camera.setIpAddress(parts[0]);
+                    camera.setPort(parts.length > 1 ? Integer.parseInt(parts[1]) : 80);
+                    camera.setName("ONVIF Camera @ " + parts[0]);
+                    camera.setRtspUrl("rtsp://" + parts[0] + ":554/stream1");
+                }
+
+                return camera;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error parsing WS-Discovery response: " + e.getMessage());
+        }
+        return null;
+    }
+
+    static boolean containsIp(List<OnvifCamera> cameras, String ip) {
+        for (OnvifCamera c : cameras) {
+            if (c.getIpAddress() != null && c.getIpAddress().equals(ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class ProbeTarget {
+        final NetworkInterface networkInterface;
+        final String messageId = "uuid:" + UUID.randomUUID();
+        final ByteBuffer probe = toDirectBuffer(buildProbe(messageId));
+        int sendsLeft = 1 + MULTICAST_UDP_REPEAT;
+        long nextSendAt = 0;
+        int delay = 0;
+
+        ProbeTarget(NetworkInterface networkInterface) {
+            this.networkInterface = networkInterface;
+        }
+
+        String name() {
+            return networkInterface != null ? networkInterface.getName() : "default";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.onvifscanner.network;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * WS-Security UsernameToken headers with PasswordDigest, as ONVIF requires.
+ */
+public final class WsSecurity {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final char[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private WsSecurity() {}
+
+    /** createdMillis should be the device's clock, not ours, or the token is rejected. */
+    public static String usernameToken(String username, String password, long createdMillis) {
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String created = format.format(new Date(createdMillis));
+
+        String digest;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(nonce);
+            sha1.update(created.getBytes(StandardCharsets.UTF_8));
+            sha1.update(password.getBytes(StandardCharsets.UTF_8));
+            digest = base64(sha1.digest());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        return "<wsse:Security s:mustUnderstand=\"1\" " +
+            "xmlns:wsse=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd\" " +
+            "xmlns:wsu=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd\">" +
+            "<wsse:UsernameToken>" +
+            "<wsse:Username>" + escape(username) + "</wsse:Username>" +
+            "<wsse:Password Type=\"http://docs.oasis-open.org/wss/2004/01/" +
+            "oasis-200401-wss-username-token-profile-1.0#PasswordDigest\">" + digest + "</wsse:Password>" +
+            "<wsse:Nonce EncodingType=\"http://docs.oasis-open.org/wss/2004/01/" +
+            "oasis-200401-wss-soap-message-security-1.0#Base64Binary\">" +
+            base64(nonce) + "</wsse:Nonce>" +
+            "<wsu:Created>" + created + "</wsu:Created>" +
+            "</wsse:UsernameToken>" +
+            "</wsse:Security>";
+    }
+
+    /**
+     * Standard Base64 with padding. Not android.util.Base64, which is a stub
+     * returning null in unit tests, nor java.util.Base64, which needs API 26.
+     */
+    static String base64(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int n = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) n |= (data[i + 1] & 0xff) << 8;
+            if (i + 2 < data.length) n |= data[i + 2] & 0xff;
+            out.append(BASE64[n >> 18 & 63]).append(BASE64[n >> 12 & 63]);
+            out.append(i + 1 < data.length ? BASE64[n >> 6 & 63] : '=');
+            out.append(i + 2 < data.length ? BASE64[n & 63] : '=');
+        }
+        return out.toString();
+    }
+
+    static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+            .replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,147 @@
+package com.onvifscanner.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size circular store of timestamped frames in a memory-mapped file.
+ * Each record is written as [length:int][ptsUs:long][flags:int][payload]; the
+ * oldest records are overwritten as new ones arrive, so the file and the
+ * in-memory index never grow. Not thread-safe: one thread appends and reads.
+ */
+public class MappedRingBuffer implements Closeable {
+    public static final int FLAG_KEY_FRAME = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    // Index of live records, oldest first, as a ring over preallocated arrays
+    private final int[] offsets;
+    private final int[] lengths;
+    private final long[] pts;
+    private final int[] flags;
+    private int first;
+    private int count;
+    private int writePos;
+
+    public MappedRingBuffer(File path, int capacity, int maxRecords) throws IOException {
+        this.capacity = capacity;
+        this.file = new RandomAccessFile(path, "rw");
+        file.setLength(capacity);
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.offsets = new int[maxRecords];
+        this.lengths = new int[maxRecords];
+        this.pts = new long[maxRecords];
+        this.flags = new int[maxRecords];
+    }
+
+    /** Returns false if the frame is larger than the whole buffer. */
+    public boolean append(byte[] data, int length, long ptsUs, int recordFlags) {
+        int total = HEADER_SIZE + length;
+        if (total > capacity) return false;
+
+        if (writePos + total > capacity) {
+            // Mark the unused tail so a reader of the file knows to wrap
+            if (writePos + 4 <= capacity) buffer.putInt(writePos, 0);
+            // Records past the wrap point are the oldest ones, left from the previous lap.
+            // They go now, or the oldest-first overlap check below would stop at them
+            // while newer records at the start of the file get overwritten.
+            while (count > 0 && offsets[first] - HEADER_SIZE >= writePos) {
+                evictOldest();
+            }
+            writePos = 0;
+        }
+        // Live records now run oldest-first from writePos onwards, so evicting
+        // until the oldest no longer overlaps frees the whole range
+        while (count > 0 && (count == offsets.length || overlapsOldest(writePos, total))) {
+            evictOldest();
+        }
+
+        buffer.putInt(writePos, length);
+        buffer.putLong(writePos + 4, ptsUs);
+        buffer.putInt(writePos + 12, recordFlags);
+        buffer.position(writePos + HEADER_SIZE);
+        buffer.put(data, 0, length);
+
+        int slot = (first + count) % offsets.length;
+        offsets[slot] = writePos + HEADER_SIZE;
+        lengths[slot] = length;
+        pts[slot] = ptsUs;
+        flags[slot] = recordFlags;
+        count++;
+        writePos += total;
+        return true;
+    }
+
+    private void evictOldest() {
+        first = (first + 1) % offsets.length;
+        count--;
+    }
+
+    private boolean overlapsOldest(int start, int length) {
+        int oldestStart = offsets[first] - HEADER_SIZE;
+        int oldestEnd = offsets[first] + lengths[first];
+        return oldestStart < start + length && start < oldestEnd;
+    }
+
+    /** Number of records; index 0 is the oldest. */
+    public int size() {
+        return count;
+    }
+
+    public long ptsAt(int index) {
+        return pts[slot(index)];
+    }
+
+    public boolean isKeyFrame(int index) {
+        return (flags[slot(index)] & FLAG_KEY_FRAME) != 0;
+    }
+
+    public int offsetAt(int index) {
+        return offsets[slot(index)];
+    }
+
+    public int lengthAt(int index) {
+        return lengths[slot(index)];
+    }
+
+    /** The mapped region itself; read it with offsetAt/lengthAt, no copy involved. */
+    public ByteBuffer mapped() {
+        return buffer;
+    }
+
+    /** Latest key frame at or before the given time, else the oldest key frame, or -1. */
+    public int keyFrameBefore(long ptsUs) {
+        int fallback = -1;
+        for (int i = count - 1; i >= 0; i--) {
+            if (!isKeyFrame(i)) continue;
+            if (ptsAt(i) <= ptsUs) return i;
+            fallback = i;
+        }
+        return fallback;
+    }
+
+    public void clear() {
+        first = 0;
+        count = 0;
+        writePos = 0;
+    }
+
+    private int slot(int index) {
+        return (first + index) % offsets.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        clear();
+        file.close();
+    }
+}
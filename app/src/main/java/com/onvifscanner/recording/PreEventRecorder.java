@@ -0,0 +1,260 @@
+package com.onvifscanner.recording;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import com.onvifscanner.camera.OnvifCamera;
+import com.onvifscanner.network.RtspClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the last stretch of a camera's H.264 stream in a memory-mapped ring
+ * buffer and, on request, writes the buffered seconds plus a live tail to an
+ * MP4 file. Frames are muxed as received; nothing is decoded or re-encoded,
+ * and the track size comes from the stream's own SPS. All buffer and muxer
+ * work happens on the RTSP reader thread, including the release after stop().
+ */
+public class PreEventRecorder implements RtspClient.Listener {
+    private static final String TAG = "PreEventRecorder";
+    private static final int MAX_RECORDS = 8192;
+    private static final int DEFAULT_WIDTH = 1920;
+    private static final int DEFAULT_HEIGHT = 1080;
+
+    public interface Callback {
+        void onSaved(File file);
+        void onError(String error);
+    }
+
+    private static class ClipRequest {
+        final File output;
+        final long preRollUs;
+        final long tailUs;
+        final Callback callback;
+
+        ClipRequest(File output, int preSeconds, int tailSeconds, Callback callback) {
+            this.output = output;
+            this.preRollUs = preSeconds * 1_000_000L;
+            this.tailUs = tailSeconds * 1_000_000L;
+            this.callback = callback;
+        }
+    }
+
+    private final OnvifCamera camera;
+    private final String rtspUrl;
+    private final File bufferFile;
+    private final int capacityBytes;
+
+    // Created before the reader thread starts, released by it in onClosed()
+    private MappedRingBuffer ring;
+    private RtspClient client;
+    private volatile ClipRequest pending;
+    private volatile String lastError;
+
+    // Reader-thread state
+    private byte[] sps;
+    private byte[] pps;
+    private int width = DEFAULT_WIDTH;
+    private int height = DEFAULT_HEIGHT;
+    // Also read by saveClip() on the caller's thread
+    private volatile ClipRequest active;
+    private MediaMuxer muxer;
+    private int track;
+    private long clipEndUs;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    /**
+     * Records rtspUrl over a separate RTSP session, so while the player shows
+     * the same stream the camera sends it twice. Passing the watched profile
+     * at least keeps that second copy to the bitrate the link already carries.
+     */
+    public PreEventRecorder(OnvifCamera camera, String rtspUrl, File bufferFile, int capacityBytes) {
+        this.camera = camera;
+        this.rtspUrl = rtspUrl;
+        this.bufferFile = bufferFile;
+        this.capacityBytes = capacityBytes;
+    }
+
+    public void start() throws IOException {
+        try {
+            ring = new MappedRingBuffer(bufferFile, capacityBytes, MAX_RECORDS);
+        } catch (IOException e) {
+            bufferFile.delete();
+            throw e;
+        }
+        client = new RtspClient(rtspUrl, camera.getUsername(), camera.getPassword(), this);
+        client.start();
+    }
+
+    /**
+     * Ends the session and returns at once. The reader thread finishes on its
+     * own and releases the buffer once it is past its last frame.
+     */
+    public void stop() {
+        if (client != null) {
+            client.stop();
+            client = null;
+        }
+    }
+
+    @Override
+    public void onClosed() {
+        // No frame can arrive after this; close out a clip that was still collecting its tail
+        if (active != null) {
+            finishClip();
+        }
+        ClipRequest request = pending;
+        pending = null;
+        if (request != null) {
+            request.callback.onError("Recorder stopped");
+        }
+        if (ring != null) {
+            try {
+                ring.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close buffer: " + e.getMessage());
+            }
+            ring = null;
+        }
+        bufferFile.delete();
+    }
+
+    public String getRtspUrl() {
+        return rtspUrl;
+    }
+
+    /**
+     * Saves the buffered preSeconds before now plus the next tailSeconds. The
+     * clip starts on the nearest earlier key frame so it decodes cleanly.
+     */
+    public void saveClip(File output, int preSeconds, int tailSeconds, Callback callback) {
+        if (lastError != null) {
+            callback.onError(lastError);
+            return;
+        }
+        if (pending != null || active != null) {
+            callback.onError("A clip is already being saved");
+            return;
+        }
+        pending = new ClipRequest(output, preSeconds, tailSeconds, callback);
+    }
+
+    @Override
+    public void onFormat(byte[] sps, byte[] pps) {
+        if (active != null) {
+            // Parameter sets changed mid-clip; the MP4 track can't follow, so end it here
+            finishClip();
+        }
+        this.sps = sps;
+        this.pps = pps;
+        int[] size = SpsParser.frameSize(sps);
+        if (size != null) {
+            width = size[0];
+            height = size[1];
+        } else {
+            Log.w(TAG, "Could not read the frame size from the SPS; assuming " + width + "x" + height);
+        }
+        ring.clear();
+    }
+
+    @Override
+    public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyFrame) {
+        if (sps == null) return;
+        if (!ring.append(data, length, ptsUs, keyFrame ? MappedRingBuffer.FLAG_KEY_FRAME : 0)) {
+            Log.w(TAG, "Frame of " + length + " bytes exceeds buffer");
+            return;
+        }
+
+        ClipRequest request = pending;
+        if (request != null && active == null) {
+            pending = null;
+            beginClip(request, ptsUs);
+        } else if (active != null) {
+            writeSample(ring.size() - 1);
+            if (ptsUs >= clipEndUs) {
+                finishClip();
+            }
+        }
+    }
+
+    @Override
+    public void onError(String error) {
+        lastError = error;
+        ClipRequest request = pending;
+        pending = null;
+        if (request != null) {
+            request.callback.onError(error);
+        }
+    }
+
+    private void beginClip(ClipRequest request, long nowUs) {
+        int start = ring.keyFrameBefore(nowUs - request.preRollUs);
+        if (start == -1) {
+            // No key frame yet; try again on the next frame
+            pending = request;
+            return;
+        }
+        try {
+            muxer = new MediaMuxer(request.output.getAbsolutePath(),
+                MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+            format.setByteBuffer("csd-0", ByteBuffer.wrap(sps));
+            format.setByteBuffer("csd-1", ByteBuffer.wrap(pps));
+            track = muxer.addTrack(format);
+            muxer.start();
+            active = request;
+            clipEndUs = nowUs + request.tailUs;
+
+            for (int i = start; i < ring.size(); i++) {
+                writeSample(i);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to start clip: " + e.getMessage());
+            releaseMuxer();
+            active = null;
+            request.output.delete();
+            request.callback.onError(e.getMessage());
+        }
+    }
+
+    /** Hands the muxer a view of the mapped file directly, so the frame is never copied. */
+    private void writeSample(int index) {
+        info.set(ring.offsetAt(index), ring.lengthAt(index), ring.ptsAt(index),
+            ring.isKeyFrame(index) ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        try {
+            muxer.writeSampleData(track, ring.mapped(), info);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to write sample: " + e.getMessage());
+        }
+    }
+
+    private void finishClip() {
+        ClipRequest request = active;
+        active = null;
+        boolean saved = false;
+        try {
+            muxer.stop();
+            saved = true;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to finish clip: " + e.getMessage());
+        }
+        releaseMuxer();
+        if (saved) {
+            request.callback.onSaved(request.output);
+        } else {
+            request.output.delete();
+            request.callback.onError("Failed to finish clip");
+        }
+    }
+
+    private void releaseMuxer() {
+        if (muxer != null) {
+            muxer.release();
+            muxer = null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.onvifscanner.recording;
+
+/**
+ * Reads the picture size from an H.264 sequence parameter set (ITU-T H.264
+ * 7.3.2.1.1), so recordings describe the stream they actually carry. Only the
+ * fields before the frame cropping offsets are walked; VUI is not read.
+ */
+final class SpsParser {
+    private static final int NAL_SPS = 7;
+
+    private final byte[] data;
+    private final int end;
+    private int bit;
+
+    private SpsParser(byte[] data, int end) {
+        this.data = data;
+        this.end = end;
+    }
+
+    /**
+     * Returns {width, height} in pixels after cropping, or null if this isn't
+     * an SPS or it ends early. A leading Annex B start code is skipped.
+     */
+    static int[] frameSize(byte[] sps) {
+        if (sps == null) return null;
+        int start = 0;
+        while (start < sps.length && sps[start] == 0) start++;
+        if (start >= 2 && start < sps.length && sps[start] == 1) {
+            start++;
+        } else {
+            start = 0;
+        }
+        if (start >= sps.length || (sps[start] & 0x1f) != NAL_SPS) return null;
+
+        // Drop emulation prevention bytes (00 00 03) from the payload after the NAL header
+        byte[] rbsp = new byte[sps.length - start - 1];
+        int length = 0;
+        int zeros = 0;
+        for (int i = start + 1; i < sps.length; i++) {
+            int b = sps[i] & 0xff;
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp[length++] = (byte) b;
+        }
+        try {
+            return new SpsParser(rbsp, length).readFrameSize();
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private int[] readFrameSize() {
+        int profileIdc = bits(8);
+        bits(16); // constraint flags and level_idc
+        ue(); // seq_parameter_set_id
+
+        int chromaFormatIdc = 1;
+        boolean separateColourPlanes = false;
+        if (hasChromaInfo(profileIdc)) {
+            chromaFormatIdc = ue();
+            if (chromaFormatIdc == 3) separateColourPlanes = bits(1) == 1;
+            ue(); // bit_depth_luma_minus8
+            ue(); // bit_depth_chroma_minus8
+            bits(1); // qpprime_y_zero_transform_bypass_flag
+            if (bits(1) == 1) {
+                int lists = chromaFormatIdc == 3 ? 12 : 8;
+                for (int i = 0; i < lists; i++) {
+                    if (bits(1) == 1) skipScalingList(i < 6 ? 16 : 64);
+                }
+            }
+        }
+
+        ue(); // log2_max_frame_num_minus4
+        int picOrderCntType = ue();
+        if (picOrderCntType == 0) {
+            ue(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            bits(1); // delta_pic_order_always_zero_flag
+            se(); // offset_for_non_ref_pic
+            se(); // offset_for_top_to_bottom_field
+            int cycle = ue();
+            for (int i = 0; i < cycle; i++) se();
+        }
+        ue(); // max_num_ref_frames
+        bits(1); // gaps_in_frame_num_value_allowed_flag
+
+        int widthInMbs = ue() + 1;
+        int heightInMapUnits = ue() + 1;
+        int frameMbsOnly = bits(1);
+        if (frameMbsOnly == 0) bits(1); // mb_adaptive_frame_field_flag
+        bits(1); // direct_8x8_inference_flag
+
+        int width = widthInMbs * 16;
+        int height = (2 - frameMbsOnly) * heightInMapUnits * 16;
+        if (bits(1) == 1) {
+            int left = ue();
+            int right = ue();
+            int top = ue();
+            int bottom = ue();
+            // Offsets are in chroma samples; Table 6-1 gives the subsampling
+            int chromaArrayType = separateColourPlanes ? 0 : chromaFormatIdc;
+            int cropX = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+            int cropY = (chromaArrayType == 1 ? 2 : 1) * (2 - frameMbsOnly);
+            width -= (left + right) * cropX;
+            height -= (top + bottom) * cropY;
+        }
+        return width > 0 && height > 0 ? new int[] {width, height} : null;
+    }
+
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100: case 110: case 122: case 244: case 44:
+            case 83: case 86: case 118: case 128: case 138: case 139: case 134: case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void skipScalingList(int size) {
+        int last = 8;
+        int next = 8;
+        for (int j = 0; j < size; j++) {
+            if (next != 0) {
+                next = (last + se() + 256) % 256;
+            }
+            last = next == 0 ? last : next;
+        }
+    }
+
+    private int bits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            if (bit >= end * 8) throw new IndexOutOfBoundsException("SPS ends early");
+            value = value << 1 | (data[bit >> 3] >> (7 - (bit & 7))) & 1;
+            bit++;
+        }
+        return value;
+    }
+
+    private int ue() {
+        return (int) Math.min(expGolomb(), Integer.MAX_VALUE);
+    }
+
+    private int se() {
+        long code = expGolomb();
+        return (int) ((code & 1) == 1 ? (code + 1) / 2 : -(code / 2));
+    }
+
+    /** Exp-Golomb code number; up to 31 leading zeros, which covers every se(v) in an SPS. */
+    private long expGolomb() {
+        int zeros = 0;
+        while (bits(1) == 0) {
+            if (++zeros > 31) throw new IndexOutOfBoundsException("Bad Exp-Golomb code");
+        }
+        return (1L << zeros) - 1 + bits(zeros);
+    }
+}
@@ -0,0 +1,294 @@
+package com.onvifscanner.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class CameraInventoryIOTest {
+    private final List<OnvifCamera> imported = new ArrayList<>();
+    private int saves;
+
+    @Test
+    public void readsQuotedCsvFields() throws IOException {
+        String csv = "name,ip,port,rtsp_url,username,password,manufacturer,model\r\n"
+            + "\"Gate, north\",10.0.0.5,8080,rtsp://10.0.0.5/main,admin,\"p,\"\"w\"\"d\",Axis,P1375\r\n"
+            + "\"Lobby\nEast\",10.0.0.6,,,,,,\r\n"
+            + "\"\",10.0.0.7\r\n";
+        CameraInventoryIO.ImportResult result = importText(csv, CameraInventoryIO.Format.CSV);
+
+        assertEquals(3, result.added);
+        assertEquals(0, result.invalid);
+        OnvifCamera gate = imported.get(0);
+        assertEquals("Gate, north", gate.getName());
+        assertEquals("10.0.0.5", gate.getIpAddress());
+        assertEquals(8080, gate.getPort());
+        assertEquals("rtsp://10.0.0.5/main", gate.getRtspUrl());
+        assertEquals("admin", gate.getUsername());
+        assertEquals("p,\"w\"d", gate.getPassword());
+        assertEquals("Axis", gate.getManufacturer());
+        assertEquals("P1375", gate.getModel());
+        // The newline is part of the field, not the end of the record
+        assertEquals("Lobby\nEast", imported.get(1).getName());
+        assertEquals("10.0.0.6", imported.get(1).getIpAddress());
+        assertNull(imported.get(1).getRtspUrl());
+        // A missing trailing column and an empty quoted name both read as unset
+        assertEquals("10.0.0.7", imported.get(2).getName());
+        assertEquals(1, saves);
+    }
+
+    @Test
+    public void mapsHeaderAliases() throws IOException {
+        assertEquals("ip", CameraInventoryIO.canonicalColumn("IP Address"));
+        assertEquals("ip", CameraInventoryIO.canonicalColumn("host"));
+        assertEquals("rtsp_url", CameraInventoryIO.canonicalColumn("RTSP-URL"));
+        assertEquals("rtsp_url", CameraInventoryIO.canonicalColumn("Stream URL"));
+        assertEquals("username", CameraInventoryIO.canonicalColumn("Login"));
+        assertEquals("manufacturer", CameraInventoryIO.canonicalColumn("Vendor"));
+        assertEquals("port", CameraInventoryIO.canonicalColumn("ONVIF_Port"));
+        assertNull(CameraInventoryIO.canonicalColumn("Location"));
+
+        // Columns in any order; unknown ones ignored, the first of a repeated alias wins
+        String csv = "Location,Make,Address,Camera Name,Host\n"
+            + "roof,Hikvision,10.0.0.9,Roof,10.9.9.9\n";
+        importText(csv, CameraInventoryIO.Format.CSV);
+        OnvifCamera roof = imported.get(0);
+        assertEquals("Roof", roof.getName());
+        assertEquals("10.0.0.9", roof.getIpAddress());
+        assertEquals("Hikvision", roof.getManufacturer());
+    }
+
+    @Test
+    public void rejectsCsvWithoutAnAddressColumn() {
+        try {
+            importText("name,model\nGate,P1375\n", CameraInventoryIO.Format.CSV);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ip or rtsp_url"));
+        }
+    }
+
+    @Test
+    public void sniffsTheFormatPastABom() throws IOException {
+        assertEquals(CameraInventoryIO.Format.JSON_LINES, sniff("\uFEFF\n  {\"ipAddress\":\"10.0.0.1\"}"));
+        assertEquals(CameraInventoryIO.Format.CSV, sniff("\uFEFFname,ip\n"));
+        assertEquals(CameraInventoryIO.Format.CSV, sniff(""));
+        assertEquals(CameraInventoryIO.Format.JSON, sniff(" [{\"ipAddress\":\"10.0.0.1\"}]"));
+
+        importText("\uFEFFname,ip\nGate,10.0.0.1\n", null);
+        importText("\uFEFF{\"name\":\"Door\",\"ipAddress\":\"10.0.0.2\"}\n", null);
+        assertEquals(2, imported.size());
+        assertEquals("Gate", imported.get(0).getName());
+        assertEquals("Door", imported.get(1).getName());
+
+        assertEquals(CameraInventoryIO.Format.CSV, CameraInventoryIO.Format.fromFileName("cams.CSV"));
+        assertEquals(CameraInventoryIO.Format.JSON_LINES, CameraInventoryIO.Format.fromFileName("cams.ndjson"));
+        // Arrays and JSON Lines both go by .json; the content decides
+        assertNull(CameraInventoryIO.Format.fromFileName("cams.json"));
+        assertNull(CameraInventoryIO.Format.fromFileName("cams.txt"));
+    }
+
+    @Test
+    public void sniffStopsAtTheMarkLimit() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) text.append(' ');
+        text.append("{\"ipAddress\":\"10.0.0.1\"}\n");
+        // A small buffer, so reading past the mark limit really invalidates the mark
+        BufferedReader reader = new BufferedReader(new StringReader(text.toString()), 16);
+
+        assertEquals(CameraInventoryIO.Format.CSV, CameraInventoryIO.sniff(reader));
+        assertEquals(' ', reader.read());
+    }
+
+    @Test
+    public void normalizeFillsDefaults() {
+        OnvifCamera byIp = new OnvifCamera();
+        byIp.setIpAddress("10.0.0.1");
+        byIp.setUsername(null);
+        byIp.setPassword(null);
+        byIp.setPort(0);
+        OnvifCamera other = new OnvifCamera();
+        other.setIpAddress("10.0.0.2");
+        assertTrue(CameraInventoryIO.normalize(byIp));
+        assertTrue(CameraInventoryIO.normalize(other));
+
+        assertNotNull(byIp.getId());
+        assertNotEquals(byIp.getId(), other.getId());
+        assertEquals("", byIp.getUsername());
+        assertEquals("", byIp.getPassword());
+        assertEquals(80, byIp.getPort());
+        assertEquals("10.0.0.1", byIp.getName());
+        assertFalse(byIp.isManual());
+
+        OnvifCamera byUrl = new OnvifCamera();
+        byUrl.setRtspUrl("rtsp://cam.local/live");
+        byUrl.setPort(8000);
+        assertTrue(CameraInventoryIO.normalize(byUrl));
+        assertTrue(byUrl.isManual());
+        assertEquals("Camera", byUrl.getName());
+        assertEquals(8000, byUrl.getPort());
+
+        assertFalse(CameraInventoryIO.normalize(new OnvifCamera()));
+    }
+
+    @Test
+    public void countsInvalidRowsAndDuplicates() throws IOException {
+        String csv = "name,ip,port,rtsp_url\n"
+            + "Good,10.0.0.1,80,\n"
+            + "Bad port,10.0.0.2,eighty,\n"
+            + "\n"
+            + "No address,,,\n"
+            + "Good again,10.0.0.3,,\n";
+        CameraInventoryIO.ImportResult result = importText(csv, CameraInventoryIO.Format.CSV);
+        assertEquals(2, result.added);
+        assertEquals(2, result.invalid);
+
+        imported.clear();
+        String jsonLines = "{\"name\":\"A\",\"ipAddress\":\"10.0.0.1\"}\n"
+            + "{\"name\":\"broken\"\n"
+            + "{\"name\":\"no address\"}\n"
+            + "\n"
+            + "{\"name\":\"B\",\"ipAddress\":\"10.0.0.2\"}\n";
+        // Pretend the store already holds the first camera of every batch
+        CameraInventoryIO.ImportResult jsonResult = CameraInventoryIO.importCameras(stream(jsonLines),
+            CameraInventoryIO.Format.JSON_LINES, batch -> {
+                imported.addAll(batch.subList(1, batch.size()));
+                return batch.size() - 1;
+            }, () -> saves++, (records, bytes) -> { });
+        assertEquals(1, jsonResult.added);
+        assertEquals(1, jsonResult.duplicates);
+        assertEquals(2, jsonResult.invalid);
+        assertEquals("B", imported.get(0).getName());
+    }
+
+    @Test
+    public void csvExportRoundTrips() throws IOException {
+        List<OnvifCamera> cameras = sampleCameras();
+        importText(export(cameras, CameraInventoryIO.Format.CSV), null);
+        assertSameCameras(cameras, imported);
+    }
+
+    @Test
+    public void jsonLinesExportRoundTrips() throws IOException {
+        List<OnvifCamera> cameras = sampleCameras();
+        importText(export(cameras, CameraInventoryIO.Format.JSON_LINES), null);
+        assertSameCameras(cameras, imported);
+
+        // Import assigns fresh ids rather than trusting the file's
+        Set<String> ids = new HashSet<>();
+        for (OnvifCamera camera : imported) {
+            ids.add(camera.getId());
+        }
+        assertEquals(cameras.size(), ids.size());
+        assertFalse(ids.contains(cameras.get(0).getId()));
+    }
+
+    @Test
+    public void jsonArrayExportRoundTrips() throws IOException {
+        List<OnvifCamera> cameras = sampleCameras();
+        String json = export(cameras, CameraInventoryIO.Format.JSON);
+        assertTrue(json, json.startsWith("["));
+        importText(json, null);
+        assertSameCameras(cameras, imported);
+    }
+
+    @Test
+    public void gsonListFromAnEarlierVersionImports() throws IOException {
+        // The shape the app used to store: Gson's serialization of List<OnvifCamera>
+        String json = new Gson().toJson(sampleCameras());
+        CameraInventoryIO.ImportResult result = importText("\uFEFF" + json, null);
+        assertEquals(3, result.added);
+        assertEquals(0, result.invalid);
+        assertSameCameras(sampleCameras(), imported);
+    }
+
+    @Test
+    public void badArrayElementsAreCountedAndSkipped() throws IOException {
+        CameraInventoryIO.ImportResult result = importText("[{\"ipAddress\":\"10.0.0.1\"}, 42, "
+            + "{\"port\":\"not a number\"}, {\"name\":\"nothing\"}, {\"ipAddress\":\"10.0.0.2\"}]",
+            CameraInventoryIO.Format.JSON);
+
+        assertEquals(2, result.added);
+        assertEquals(3, result.invalid);
+        assertEquals("10.0.0.2", imported.get(1).getIpAddress());
+    }
+
+    private static List<OnvifCamera> sampleCameras() {
+        OnvifCamera quoted = camera("Say \"cheese\", please", "10.0.0.1", 8080, "rtsp://10.0.0.1:554/a?b=1,2");
+        quoted.setUsername("admin");
+        quoted.setPassword("p\"a,ss\r\nword");
+        quoted.setManufacturer("Axis");
+        quoted.setModel("M3106");
+        OnvifCamera multiline = camera("Line one\nLine two", "192.168.1.20", 80, null);
+        OnvifCamera urlOnly = camera("Stream", null, 80, "rtsp://user:pw@cam.example.net/live");
+        urlOnly.setManual(true);
+        return Arrays.asList(quoted, multiline, urlOnly);
+    }
+
+    private static OnvifCamera camera(String name, String ip, int port, String rtspUrl) {
+        OnvifCamera camera = new OnvifCamera();
+        camera.setName(name);
+        camera.setIpAddress(ip);
+        camera.setPort(port);
+        camera.setRtspUrl(rtspUrl);
+        return camera;
+    }
+
+    private static void assertSameCameras(List<OnvifCamera> expected, List<OnvifCamera> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            OnvifCamera want = expected.get(i);
+            OnvifCamera got = actual.get(i);
+            assertEquals(want.getName(), got.getName());
+            assertEquals(want.getIpAddress(), got.getIpAddress());
+            assertEquals(want.getPort(), got.getPort());
+            assertEquals(want.getRtspUrl(), got.getRtspUrl());
+            assertEquals(want.getUsername(), got.getUsername());
+            assertEquals(want.getPassword(), got.getPassword());
+            assertEquals(want.getManufacturer(), got.getManufacturer());
+            assertEquals(want.getModel(), got.getModel());
+            assertEquals(want.isManual(), got.isManual());
+        }
+    }
+
+    private static String export(List<OnvifCamera> cameras, CameraInventoryIO.Format format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CameraInventoryIO.exportCameras(cameras, out, format, (records, bytes) -> { });
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private CameraInventoryIO.ImportResult importText(String text, CameraInventoryIO.Format format)
+            throws IOException {
+        return CameraInventoryIO.importCameras(stream(text), format, batch -> {
+            imported.addAll(batch);
+            return batch.size();
+        }, () -> saves++, (records, bytes) -> { });
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static CameraInventoryIO.Format sniff(String text) throws IOException {
+        return CameraInventoryIO.sniff(new BufferedReader(new StringReader(text)));
+    }
+}
@@ -0,0 +1,30 @@
+package com.onvifscanner.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class OnvifCameraTest {
+    @Test
+    public void camerasCreatedTogetherGetDistinctIds() {
+        // Faster than the clock ticks, as when a discovery sweep turns up a burst of replies
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(new OnvifCamera().getId());
+        }
+        assertEquals(1000, ids.size());
+    }
+
+    @Test
+    public void equalityFollowsTheId() {
+        OnvifCamera camera = new OnvifCamera();
+        OnvifCamera copy = new OnvifCamera();
+        assertNotEquals(camera, copy);
+        copy.setId(camera.getId());
+        assertEquals(camera, copy);
+    }
+}
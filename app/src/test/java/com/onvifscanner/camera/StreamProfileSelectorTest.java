@@ -0,0 +1,163 @@
+package com.onvifscanner.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class StreamProfileSelectorTest {
+    private static final long T = 1_000_000;
+
+    private final StreamProfile low = profile("low", 640, 360, 512);
+    private final StreamProfile mid = profile("mid", 1280, 720, 2048);
+    private final StreamProfile high = profile("high", 1920, 1080, 4096);
+
+    @Test
+    public void ordersUsableProfilesAndStartsAtTheTop() {
+        StreamProfile mjpeg = profile("mjpeg", 3840, 2160, 100);
+        mjpeg.setEncoding("JPEG");
+        StreamProfile noUri = profile("none", 3840, 2160, 100);
+        noUri.setRtspUrl(null);
+        StreamProfile midLowRate = profile("mid-lite", 1280, 720, 1024);
+
+        StreamProfileSelector selector = new StreamProfileSelector(
+            Arrays.asList(high, mjpeg, mid, noUri, low, midLowRate));
+        assertSame(high, selector.getCurrent());
+        // Resolution first, bitrate within a resolution
+        assertSame(mid, selector.onStall(T));
+        assertSame(midLowRate, selector.onStall(T + 1));
+        assertSame(low, selector.onStall(T + 2));
+
+        assertTrue(new StreamProfileSelector(Collections.singletonList(mjpeg)).isEmpty());
+    }
+
+    @Test
+    public void viewSizeCapsTheProfile() {
+        StreamProfileSelector selector = selector();
+
+        // 800x450 needs more than 640x360, so 720p is the smallest that covers it
+        assertSame(mid, selector.onViewSize(800, 450, T));
+        // A larger view lifts the cap but doesn't switch by itself
+        assertNull(selector.onViewSize(1920, 1080, T + 1000));
+        assertNull(selector.onThroughput(1800, T + 1000));
+        assertSame(high, selector.onThroughput(1800, T + 30_000));
+
+        assertSame(low, selector.onViewSize(100, 100, T + 40_000));
+        assertNull(selector.onThroughput(450, T + 1_000_000));
+    }
+
+    @Test
+    public void enlargingTheViewClimbsBackAtTheRateTheSmallProfileSends() {
+        StreamProfileSelector selector = selector();
+        assertSame(low, selector.onViewSize(320, 180, T));
+        assertNull(selector.onViewSize(1920, 1080, T + 1000));
+
+        // A quiet 360p scene sends far less than 2048, and that is no reason to stay
+        long now = T;
+        for (int i = 0; i < 14; i++) {
+            now += 2000;
+            assertNull(selector.onThroughput(300, now));
+        }
+        assertSame(mid, selector.onThroughput(300, T + 30_000));
+        assertNull(selector.onThroughput(900, T + 50_000));
+        assertSame(high, selector.onThroughput(900, T + 60_000));
+    }
+
+    @Test
+    public void stallDropsToWhatTheThroughputCarries() {
+        StreamProfile top = profile("4k", 3840, 2160, 8192);
+        StreamProfileSelector selector = new StreamProfileSelector(Arrays.asList(low, mid, high, top));
+        selector.onThroughput(3000, T);
+
+        // 3000 kbit/s with 20% headroom carries 2048 but not 4096
+        assertSame(mid, selector.onStall(T + 1000));
+        assertSame(low, selector.onStall(T + 2000));
+        assertNull(selector.onStall(T + 3000));
+    }
+
+    @Test
+    public void stallWithoutMeasurementStepsDownOnce() {
+        StreamProfileSelector selector = selector();
+        selector.onThroughput(0, T);
+
+        assertSame(mid, selector.onStall(T + 1000));
+    }
+
+    @Test
+    public void stepsUpAfterStablePeriodWithGrowingBackoff() {
+        StreamProfileSelector selector = selector();
+        selector.onThroughput(1000, T);
+        assertSame(low, selector.onStall(T + 1000));
+
+        // Stable for 30 s, but the first stall blocks climbing for 60 s
+        assertNull(selector.onThroughput(450, T + 31_000));
+        assertSame(mid, selector.onThroughput(450, T + 61_000));
+
+        // Failing again right away doubles the hold-off to 120 s
+        assertSame(low, selector.onStall(T + 62_000));
+        assertNull(selector.onThroughput(450, T + 92_000));
+        assertNull(selector.onThroughput(450, T + 181_999));
+        assertSame(mid, selector.onThroughput(450, T + 182_000));
+        assertEquals(mid, selector.getCurrent());
+    }
+
+    @Test
+    public void stalledTrialRollsBackToWhereItCameFrom() {
+        StreamProfile top = profile("4k", 3840, 2160, 8192);
+        StreamProfileSelector selector = new StreamProfileSelector(Arrays.asList(low, mid, high, top));
+        selector.onThroughput(3000, T);
+        assertSame(mid, selector.onStall(T + 1000));
+
+        // Held off for 60 s, then one step up on trial
+        assertSame(high, selector.onThroughput(1800, T + 61_000));
+        // The trial stream barely gets going; that figure would size a drop to 360p
+        selector.onThroughput(500, T + 65_000);
+        assertSame(mid, selector.onStall(T + 66_000));
+
+        // The hold-off doubled; the next trial plays past its window and is kept
+        assertNull(selector.onThroughput(1800, T + 185_999));
+        assertSame(high, selector.onThroughput(1800, T + 186_000));
+        assertNull(selector.onThroughput(3500, T + 206_000));
+        assertSame(high, selector.getCurrent());
+
+        // A stall after that is an ordinary one, sized by the last sample
+        selector.onThroughput(600, T + 210_000);
+        assertSame(low, selector.onStall(T + 211_000));
+    }
+
+    @Test
+    public void longStableStretchResetsTheBackoff() {
+        StreamProfileSelector selector = selector();
+        selector.onThroughput(1000, T);
+        selector.onStall(T + 1000);
+        selector.onThroughput(450, T + 61_000);
+        selector.onStall(T + 62_000);
+        // Two minutes at the lower profile before climbing counts as recovered
+        assertSame(mid, selector.onThroughput(450, T + 182_000));
+
+        assertSame(low, selector.onStall(T + 183_000));
+        assertNull(selector.onThroughput(450, T + 242_999));
+        assertSame(mid, selector.onThroughput(450, T + 243_000));
+    }
+
+    private StreamProfileSelector selector() {
+        return new StreamProfileSelector(Arrays.asList(high, low, mid));
+    }
+
+    private static StreamProfile profile(String name, int width, int height, int kbps) {
+        StreamProfile profile = new StreamProfile();
+        profile.setName(name);
+        profile.setToken(name);
+        profile.setEncoding("H264");
+        profile.setWidth(width);
+        profile.setHeight(height);
+        profile.setBitrateKbps(kbps);
+        profile.setRtspUrl("rtsp://10.0.0.1/" + name);
+        return profile;
+    }
+}
@@ -0,0 +1,407 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.onvifscanner.camera.CameraEvent;
+import com.onvifscanner.camera.OnvifCamera;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the subscription state machine against a fake ONVIF event service on
+ * localhost. Notification bodies come from the fixtures in resources/events.
+ */
+public class EventEngineTest {
+    private static final String GET_CAPABILITIES = "GetCapabilities";
+    private static final String CREATE = "CreatePullPointSubscription";
+    private static final String PULL = "PullMessages";
+    private static final String RENEW = "Renew";
+    private static final String UNSUBSCRIBE = "Unsubscribe";
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private int port;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<Long> createTimes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failCreates = new AtomicInteger();
+    private final AtomicInteger subscriptionIds = new AtomicInteger();
+    private final AtomicInteger failRenews = new AtomicInteger();
+    private final CountDownLatch renewFailed = new CountDownLatch(1);
+    private final List<String> pullPaths = new CopyOnWriteArrayList<>();
+    private final List<CameraEvent> events = new CopyOnWriteArrayList<>();
+    // Fixture name for the nth PullMessages on a path, or null for an empty response
+    private volatile PullScript pullScript = (path, n) -> null;
+    private volatile String subscriptionScheme = "http";
+    private EventEngine engine;
+
+    private interface PullScript {
+        String fixture(String path, int n) throws InterruptedException;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/", this::handle);
+        server.start();
+        port = server.getAddress().getPort();
+        engine = new EventEngine((camera, event) -> events.add(event), new OnvifHttpClient(), KXmlParser::new);
+    }
+
+    @After
+    public void tearDown() {
+        engine.stop();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void subscribesPollsAndRenewsUntilStopped() throws Exception {
+        engine.start(Collections.singletonList(camera("1")));
+
+        awaitCount(PULL, 2, 5000);
+        // Lifetime is one second, so a renewal is due after 800 ms
+        awaitCount(RENEW, 1, 5000);
+        assertEquals(1, count(CREATE));
+
+        engine.stop();
+        awaitCount(UNSUBSCRIBE, 1, 3000);
+        int afterStop = requests.size();
+        Thread.sleep(1500);
+        assertEquals("requests after stop: " + requests.subList(afterStop, requests.size()),
+            afterStop, requests.size());
+    }
+
+    @Test
+    public void failedSubscribeBacksOff() throws Exception {
+        failCreates.set(2);
+        engine.setRetryDelays(200, 10_000);
+        engine.start(Collections.singletonList(camera("1")));
+
+        awaitCount(CREATE, 3, 5000);
+        awaitCount(PULL, 1, 5000);
+        // Jittered delays fall in [base / 2, base], doubling per failure
+        long firstGap = (createTimes.get(1) - createTimes.get(0)) / 1_000_000;
+        long secondGap = (createTimes.get(2) - createTimes.get(1)) / 1_000_000;
+        assertTrue("first retry after " + firstGap + " ms", firstGap >= 90);
+        assertTrue("second retry after " + secondGap + " ms", secondGap >= 190);
+    }
+
+    @Test
+    public void restartDropsRetriesOfStoppedRun() throws Exception {
+        failCreates.set(Integer.MAX_VALUE);
+        engine.setRetryDelays(300, 300);
+        engine.start(Collections.singletonList(camera("1")));
+        awaitCount(CREATE, 1, 5000);
+
+        engine.stop();
+        engine.start(new ArrayList<>());
+        Thread.sleep(1000);
+        assertEquals(1, count(CREATE));
+    }
+
+    @Test
+    public void restartWhileAPollIsInFlightKeepsPolling() throws Exception {
+        pullScript = (path, n) -> "motion.xml";
+        engine.start(Collections.singletonList(camera("1")));
+        awaitCount(PULL, 1, 5000);
+
+        // stop() doesn't wait for the selector thread, so the new run starts beside the old one
+        engine.stop();
+        engine.start(Collections.singletonList(camera("1")));
+        awaitCount(CREATE, 2, 5000);
+        int pullsAfterRestart = count(PULL);
+        awaitCount(PULL, pullsAfterRestart + 2, 5000);
+        assertFalse(events.isEmpty());
+    }
+
+    @Test
+    public void updateOnlyTouchesChangedCameras() throws Exception {
+        OnvifCamera first = camera("1");
+        OnvifCamera second = camera("2");
+        engine.start(Collections.singletonList(first));
+        awaitCount(PULL, 1, 5000);
+
+        engine.update(Arrays.asList(first, second));
+        awaitCount(CREATE, 2, 5000);
+        assertEquals(0, count(UNSUBSCRIBE));
+
+        engine.update(Collections.singletonList(second));
+        awaitCount(UNSUBSCRIBE, 1, 3000);
+        Thread.sleep(300);
+        assertEquals(2, count(CREATE));
+        assertEquals(1, count(UNSUBSCRIBE));
+    }
+
+    @Test
+    public void parsesMotionNotifications() throws Exception {
+        List<CameraEvent> parsed = parse("motion.xml");
+
+        assertEquals(2, parsed.size());
+        assertEvent(parsed.get(0), CameraEvent.Type.MOTION, true, "tns1:RuleEngine/CellMotionDetector/Motion");
+        assertEvent(parsed.get(1), CameraEvent.Type.MOTION, false, "tns1:VideoSource/MotionAlarm");
+    }
+
+    @Test
+    public void parsesTamperAndSceneChangeNotifications() throws Exception {
+        List<CameraEvent> parsed = parse("tamper.xml");
+
+        assertEquals(2, parsed.size());
+        assertEvent(parsed.get(0), CameraEvent.Type.TAMPER, true, "tns1:VideoSource/GlobalSceneChange/ImagingService");
+        // The Source item says "true" too; only Data decides the state
+        assertEvent(parsed.get(1), CameraEvent.Type.TAMPER, false, "tns1:RuleEngine/TamperDetector/Tamper");
+    }
+
+    @Test
+    public void ignoresOtherTopics() throws Exception {
+        assertTrue(parse("other.xml").isEmpty());
+    }
+
+    @Test
+    public void classifiesTopics() {
+        assertEquals(CameraEvent.Type.MOTION, EventEngine.classify("tns1:RuleEngine/CellMotionDetector/Motion"));
+        assertEquals(CameraEvent.Type.MOTION, EventEngine.classify("tns1:VideoSource/MotionAlarm"));
+        assertEquals(CameraEvent.Type.TAMPER, EventEngine.classify("tns1:RuleEngine/TamperDetector/Tamper"));
+        // Scene change mentions neither word but is how many cameras report tampering
+        assertEquals(CameraEvent.Type.TAMPER, EventEngine.classify("tns1:VideoSource/GlobalSceneChange/AnalyticsService"));
+        assertNull(EventEngine.classify("tns1:Device/Trigger/DigitalInput"));
+    }
+
+    @Test
+    public void deliversEventsFromPulledNotifications() throws Exception {
+        String[] sequence = {"motion.xml", "other.xml", "tamper.xml"};
+        pullScript = (path, n) -> n < sequence.length ? sequence[n] : null;
+        engine.start(Collections.singletonList(camera("1")));
+
+        awaitCount(PULL, sequence.length + 1, 5000);
+        assertEquals(4, events.size());
+        assertEvent(events.get(0), CameraEvent.Type.MOTION, true, "tns1:RuleEngine/CellMotionDetector/Motion");
+        assertEvent(events.get(1), CameraEvent.Type.MOTION, false, "tns1:VideoSource/MotionAlarm");
+        assertEvent(events.get(2), CameraEvent.Type.TAMPER, true, "tns1:VideoSource/GlobalSceneChange/ImagingService");
+        assertEvent(events.get(3), CameraEvent.Type.TAMPER, false, "tns1:RuleEngine/TamperDetector/Tamper");
+        for (CameraEvent event : events) {
+            assertEquals("1", event.getCameraId());
+        }
+    }
+
+    @Test
+    public void renewFaultAbandonsThePendingPull() throws Exception {
+        failRenews.set(1);
+        engine.setRetryDelays(50, 50);
+        pullScript = (path, n) -> {
+            if (path.endsWith("/subscription/1")) {
+                // Still waiting when Renew fails; answers afterwards on the old socket
+                renewFailed.await(5, TimeUnit.SECONDS);
+                Thread.sleep(300);
+                return "tamper.xml";
+            }
+            return "motion.xml";
+        };
+        engine.start(Collections.singletonList(camera("1")));
+
+        awaitCount(RENEW, 1, 5000);
+        awaitPulls("/subscription/2", 3, 5000);
+        // Past the point where the stale answer would have been read
+        Thread.sleep(600);
+        assertEquals(2, count(CREATE));
+        assertFalse(events.isEmpty());
+        for (CameraEvent event : events) {
+            assertEquals("stale pull delivered " + event.getTopic(), CameraEvent.Type.MOTION, event.getType());
+        }
+    }
+
+    @Test
+    public void httpsSubscriptionIsNeitherPolledNorRetried() throws Exception {
+        subscriptionScheme = "https";
+        engine.setRetryDelays(50, 50);
+        engine.start(Collections.singletonList(camera("1")));
+
+        awaitCount(CREATE, 1, 5000);
+        // Polls would go out as plain HTTP, which this server would even answer
+        Thread.sleep(500);
+        assertEquals(1, count(CREATE));
+        assertEquals(0, count(PULL));
+    }
+
+    private static List<CameraEvent> parse(String fixture) throws Exception {
+        return EventEngine.parseNotifications(new OnvifCamera(), fixture(fixture), new KXmlParser());
+    }
+
+    private static byte[] fixture(String name) throws IOException {
+        try (InputStream in = EventEngineTest.class.getResourceAsStream("/events/" + name)) {
+            if (in == null) throw new IOException("Missing fixture " + name);
+            return in.readAllBytes();
+        }
+    }
+
+    private static void assertEvent(CameraEvent event, CameraEvent.Type type, boolean active, String topic) {
+        assertEquals(type, event.getType());
+        assertEquals(active, event.isActive());
+        assertEquals(topic, event.getTopic());
+    }
+
+    private OnvifCamera camera(String id) {
+        OnvifCamera camera = new OnvifCamera();
+        camera.setId(id);
+        camera.setIpAddress("127.0.0.1");
+        camera.setPort(port);
+        camera.setUsername("");
+        camera.setPassword("");
+        return camera;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String kind = kindOf(body);
+        requests.add(kind);
+        String base = "http://127.0.0.1:" + port;
+        String now = xsdTime(0);
+        switch (kind) {
+            case GET_CAPABILITIES:
+                respond(exchange, 200, "<tds:GetCapabilitiesResponse><tds:Capabilities>" +
+                    "<tt:Events><tt:XAddr>" + base + "/onvif/events</tt:XAddr></tt:Events>" +
+                    "</tds:Capabilities></tds:GetCapabilitiesResponse>");
+                break;
+            case CREATE:
+                createTimes.add(System.nanoTime());
+                if (failCreates.getAndDecrement() > 0) {
+                    respond(exchange, 500, "<s:Fault><s:Reason><s:Text>busy</s:Text></s:Reason></s:Fault>");
+                    break;
+                }
+                respond(exchange, 200, "<tev:CreatePullPointSubscriptionResponse><tev:SubscriptionReference>" +
+                    "<wsa:Address>" + subscriptionScheme + "://127.0.0.1:" + port + "/subscription/" +
+                    subscriptionIds.incrementAndGet() + "</wsa:Address>" +
+                    "</tev:SubscriptionReference><wsnt:CurrentTime>" + now + "</wsnt:CurrentTime>" +
+                    "<wsnt:TerminationTime>" + xsdTime(1) + "</wsnt:TerminationTime>" +
+                    "</tev:CreatePullPointSubscriptionResponse>");
+                break;
+            case PULL:
+                String path = exchange.getRequestURI().getPath();
+                int n = 0;
+                for (String previous : pullPaths) {
+                    if (previous.equals(path)) n++;
+                }
+                pullPaths.add(path);
+                String fixture;
+                try {
+                    fixture = pullScript.fixture(path, n);
+                    // A short long-poll
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (fixture != null) {
+                    respond(exchange, 200, fixture(fixture));
+                } else {
+                    respond(exchange, 200, "<tev:PullMessagesResponse><tev:CurrentTime>" + now +
+                        "</tev:CurrentTime></tev:PullMessagesResponse>");
+                }
+                break;
+            case RENEW:
+                if (failRenews.getAndDecrement() > 0) {
+                    respond(exchange, 500, "<s:Fault><s:Reason><s:Text>unknown subscription</s:Text></s:Reason></s:Fault>");
+                    renewFailed.countDown();
+                    break;
+                }
+                respond(exchange, 200, "<wsnt:RenewResponse><wsnt:TerminationTime>" + xsdTime(1) +
+                    "</wsnt:TerminationTime><wsnt:CurrentTime>" + now + "</wsnt:CurrentTime></wsnt:RenewResponse>");
+                break;
+            default:
+                respond(exchange, 200, "<wsnt:UnsubscribeResponse/>");
+                break;
+        }
+    }
+
+    private static String kindOf(String body) {
+        // PullMessages' action URI mentions PullPointSubscription, so look for Create first
+        if (body.contains(CREATE)) return CREATE;
+        if (body.contains(PULL)) return PULL;
+        if (body.contains(UNSUBSCRIBE)) return UNSUBSCRIBE;
+        if (body.contains(RENEW)) return RENEW;
+        return GET_CAPABILITIES;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String bodyXml) throws IOException {
+        respond(exchange, code, ("<?xml version=\"1.0\"?><s:Envelope " +
+            "xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" " +
+            "xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\" " +
+            "xmlns:tev=\"http://www.onvif.org/ver10/events/wsdl\" " +
+            "xmlns:wsnt=\"http://docs.oasis-open.org/wsn/b-2\" " +
+            "xmlns:wsa=\"http://www.w3.org/2005/08/addressing\" " +
+            "xmlns:tt=\"http://www.onvif.org/ver10/schema\">" +
+            "<s:Body>" + bodyXml + "</s:Body></s:Envelope>").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", OnvifHttpClient.SOAP_CONTENT_TYPE);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String xsdTime(int secondsFromNow) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        return format.format(new Date(now + secondsFromNow * 1000L));
+    }
+
+    private int count(String kind) {
+        int n = 0;
+        for (String request : requests) {
+            if (request.equals(kind)) n++;
+        }
+        return n;
+    }
+
+    private void awaitPulls(String path, int expected, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (pullPaths.stream().filter(path::equals).count() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Expected " + expected + " pulls on " + path + ", saw " + pullPaths);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private void awaitCount(String kind, int expected, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (count(kind) < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Expected " + expected + " " + kind + " requests, saw " + requests);
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class HttpResponseParserTest {
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String body(HttpResponseParser parser) {
+        return new String(parser.body(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void contentLengthBodyFedInPieces() {
+        HttpResponseParser parser = new HttpResponseParser();
+        String response = "HTTP/1.1 200 OK\r\nContent-Type: application/soap+xml\r\nContent-Length: 11\r\n\r\nhello world";
+        // Split inside the header terminator and inside the body
+        assertFalse(parser.feed(bytes(response.substring(0, 60))));
+        assertFalse(parser.feed(bytes(response.substring(60, 82))));
+        assertTrue(parser.feed(bytes(response.substring(82))));
+
+        assertEquals(200, parser.code);
+        assertEquals(11, parser.contentLength);
+        assertTrue(parser.keepAlive);
+        assertEquals("hello world", body(parser));
+    }
+
+    @Test
+    public void chunkedBodyWithExtensionsAndTrailer() {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertFalse(parser.feed(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5;ext=1\r\nhello\r\n")));
+        assertFalse(parser.feed(bytes("6\r\n world\r\n0\r\n")));
+        assertTrue(parser.feed(bytes("\r\n")));
+
+        assertTrue(parser.chunked);
+        assertEquals("hello world", body(parser));
+    }
+
+    @Test
+    public void closeDelimitedBodyCompletesOnFinish() {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertFalse(parser.feed(bytes("HTTP/1.0 200 OK\r\n\r\npartial")));
+        assertFalse(parser.keepAlive);
+        assertTrue(parser.finish());
+        assertEquals("partial", body(parser));
+    }
+
+    @Test
+    public void finishBeforeHeadersIsIncomplete() {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertFalse(parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-")));
+        assertFalse(parser.finish());
+    }
+
+    @Test
+    public void digestChallengeAndConnectionClose() {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertTrue(parser.feed(bytes("HTTP/1.1 401 Unauthorized\r\n" +
+            "WWW-Authenticate: Basic realm=\"cam\"\r\n" +
+            "www-authenticate: Digest realm=\"cam\", nonce=\"abc\", qop=\"auth\"\r\n" +
+            "Connection: close\r\n" +
+            "Content-Length: 0\r\n\r\n")));
+
+        assertEquals(401, parser.code);
+        assertEquals("Digest realm=\"cam\", nonce=\"abc\", qop=\"auth\"", parser.wwwAuthenticate);
+        assertFalse(parser.keepAlive);
+        assertArrayEquals(new byte[0], parser.body());
+    }
+
+    @Test
+    public void resetAllowsReuseOnKeptAliveConnection() {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertTrue(parser.feed(bytes("HTTP/1.1 500 Error\r\nConnection: close\r\n" +
+            "WWW-Authenticate: Digest nonce=\"x\"\r\nContent-Length: 3\r\n\r\nbad")));
+
+        parser.reset();
+        assertTrue(parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok")));
+        assertEquals(200, parser.code);
+        assertTrue(parser.keepAlive);
+        assertNull(parser.wwwAuthenticate);
+        assertEquals("ok", body(parser));
+    }
+}
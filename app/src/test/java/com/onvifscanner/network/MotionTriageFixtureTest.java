@@ -0,0 +1,88 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Runs the per-snapshot work of a triage cycle, downsampling plus the frame
+ * diff, over the fixture frames in resources/triage (640x360 JPEGs of a street:
+ * empty, a car driving in over three frames, parked for two, then the same
+ * scene with the lights up). Decoding is done once up front with ImageIO; on
+ * the device it is BitmapFactory's job.
+ */
+public class MotionTriageFixtureTest {
+    private static final int FRAMES = 8;
+    private static final int PASSES = 20;
+
+    private static int width;
+    private static int height;
+    private static int[][] frames;
+
+    @BeforeClass
+    public static void loadFixtures() throws IOException {
+        frames = new int[FRAMES][];
+        for (int i = 0; i < FRAMES; i++) {
+            String name = String.format("/triage/frame-%02d.jpg", i + 1);
+            try (InputStream in = MotionTriageFixtureTest.class.getResourceAsStream(name)) {
+                if (in == null) throw new IOException("Missing fixture " + name);
+                BufferedImage image = ImageIO.read(in);
+                width = image.getWidth();
+                height = image.getHeight();
+                frames[i] = image.getRGB(0, 0, width, height, null, 0, width);
+            }
+        }
+    }
+
+    @Test
+    public void scoresTheFixtureSequence() {
+        int[] changed = diffSequence(new MotionTriage.Decoder());
+
+        // The car moving in changes a visible share of the thumbnail
+        for (int i = 1; i <= 3; i++) {
+            assertTrue("frame " + (i + 1) + " changed " + changed[i], changed[i] > 40);
+        }
+        // Parked, and the lighting change, are noise and compression only
+        for (int i = 4; i < FRAMES; i++) {
+            assertTrue("frame " + (i + 1) + " changed " + changed[i], changed[i] < 5);
+        }
+    }
+
+    @Test
+    public void reusedDecoderScoresTheSameEveryPass() {
+        MotionTriage.Decoder decoder = new MotionTriage.Decoder();
+        int[] first = diffSequence(decoder);
+        // The buffers are shared across frames and passes; nothing may leak from one into the next
+        for (int pass = 0; pass < PASSES; pass++) {
+            assertArrayEquals(first, diffSequence(decoder));
+        }
+        assertArrayEquals(first, diffSequence(new MotionTriage.Decoder()));
+    }
+
+    /** Changed thumbnail pixels of each frame against the one before; entry 0 is 0. */
+    private static int[] diffSequence(MotionTriage.Decoder decoder) {
+        int[] changed = new int[FRAMES];
+        byte[] previous = new byte[MotionTriage.THUMB_SIZE];
+        int previousMean = -1;
+        for (int i = 0; i < FRAMES; i++) {
+            decoder.pixels = frames[i];
+            MotionTriage.downsampleLuma(decoder, width, height);
+            int mean = MotionTriage.mean(decoder.thumbnail);
+            if (previousMean >= 0) {
+                changed[i] = MotionTriage.changedPixels(previous, decoder.thumbnail,
+                    mean - previousMean, MotionTriage.CHANGE_THRESHOLD);
+            }
+            System.arraycopy(decoder.thumbnail, 0, previous, 0, MotionTriage.THUMB_SIZE);
+            previousMean = mean;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,148 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+
+import com.onvifscanner.camera.OnvifCamera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MotionTriageTest {
+    // Five source pixels per thumbnail cell in each direction
+    private static final int WIDTH = MotionTriage.THUMB_WIDTH * 5;
+    private static final int HEIGHT = MotionTriage.THUMB_HEIGHT * 5;
+
+    @Test
+    public void downsampleAveragesLumaPerCell() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // Left half white, right half pure red; one cell mixes both
+                pixels[y * WIDTH + x] = x < WIDTH / 2 + 2 ? 0xffffffff : 0xffff0000;
+            }
+        }
+        byte[] thumbnail = thumbnail(pixels);
+
+        assertEquals(255, thumbnail[0] & 0xff);
+        // BT.601 weights in 8-bit fixed point: red contributes 77/256
+        assertEquals(76, thumbnail[MotionTriage.THUMB_WIDTH - 1] & 0xff);
+        // Cell 32 covers columns 160-164: two white, three red
+        assertEquals((2 * 255 + 3 * 76) / 5, thumbnail[MotionTriage.THUMB_WIDTH / 2] & 0xff);
+    }
+
+    @Test
+    public void movedObjectChangesOldAndNewCells() {
+        byte[] before = thumbnail(scene(0, 0, 0));
+        byte[] after = thumbnail(scene(160, 120, 0));
+
+        // An 80x60 block is 16x12 cells, counted where it left and where it arrived
+        int shift = MotionTriage.mean(after) - MotionTriage.mean(before);
+        assertEquals(0, shift);
+        assertEquals(2 * 16 * 12, MotionTriage.changedPixels(before, after, shift, MotionTriage.CHANGE_THRESHOLD));
+    }
+
+    @Test
+    public void overallBrightnessChangeIsNotMotion() {
+        byte[] day = thumbnail(scene(0, 0, 0));
+        byte[] brighter = thumbnail(scene(0, 0, 40));
+
+        int shift = MotionTriage.mean(brighter) - MotionTriage.mean(day);
+        assertEquals(40, shift);
+        assertEquals(0, MotionTriage.changedPixels(day, brighter, shift, MotionTriage.CHANGE_THRESHOLD));
+        // Without compensation every cell would count
+        assertEquals(MotionTriage.THUMB_SIZE, MotionTriage.changedPixels(day, brighter, 0, MotionTriage.CHANGE_THRESHOLD));
+    }
+
+    @Test
+    public void thresholdIsExclusive() {
+        byte[] previous = new byte[MotionTriage.THUMB_SIZE];
+        byte[] current = new byte[MotionTriage.THUMB_SIZE];
+        Arrays.fill(previous, (byte) 100);
+        Arrays.fill(current, (byte) 100);
+        current[0] = (byte) (100 + MotionTriage.CHANGE_THRESHOLD);
+        current[1] = (byte) (100 - MotionTriage.CHANGE_THRESHOLD - 1);
+        current[2] = (byte) (100 + MotionTriage.CHANGE_THRESHOLD + 1);
+
+        assertEquals(2, MotionTriage.changedPixels(previous, current, 0, MotionTriage.CHANGE_THRESHOLD));
+    }
+
+    @Test
+    public void activityAccumulatesAndHalvesPerHalfLife() {
+        MotionTriage triage = new MotionTriage(() -> { }, null);
+        long t0 = 1_000_000;
+        triage.recordFrame("cam", thumbnail(scene(0, 0, 0)), t0);
+        // The first frame has nothing to compare with
+        assertEquals(0, triage.activityAt("cam", t0), 0);
+
+        triage.recordFrame("cam", thumbnail(scene(160, 120, 0)), t0);
+        double moved = 2 * 16 * 12 / (double) MotionTriage.THUMB_SIZE;
+        assertEquals(moved, triage.activityAt("cam", t0), 1e-9);
+
+        long later = t0 + MotionTriage.HALF_LIFE_MS;
+        assertEquals(moved / 2, triage.activityAt("cam", later), 1e-9);
+        // A still frame adds nothing to the decayed score
+        triage.recordFrame("cam", thumbnail(scene(160, 120, 0)), later);
+        assertEquals(moved / 2, triage.activityAt("cam", later), 1e-9);
+        assertEquals(moved / 4, triage.activityAt("cam", later + MotionTriage.HALF_LIFE_MS), 1e-9);
+    }
+
+    @Test
+    public void failuresBackOffUpToTheCap() {
+        int[] expected = {1, 2, 4, 8, MotionTriage.MAX_SKIPPED_CYCLES, MotionTriage.MAX_SKIPPED_CYCLES};
+        for (int failures = 1; failures <= expected.length; failures++) {
+            assertEquals(expected[failures - 1], MotionTriage.skippedCycles(failures));
+        }
+    }
+
+    @Test
+    public void rankingPutsMostActiveFirstAndKeepsTiesInOrder() {
+        AtomicInteger published = new AtomicInteger();
+        MotionTriage triage = new MotionTriage(published::incrementAndGet, null);
+        OnvifCamera quiet = camera("quiet");
+        OnvifCamera busy = camera("busy");
+        OnvifCamera manual = camera("manual");
+        manual.setIpAddress(null);
+        OnvifCamera idle = camera("idle");
+        triage.setCameras(Arrays.asList(quiet, busy, manual, idle));
+        assertEquals(Arrays.asList(quiet, busy, manual, idle), triage.getRanked());
+
+        long now = System.currentTimeMillis();
+        triage.recordFrame("busy", thumbnail(scene(0, 0, 0)), now);
+        triage.recordFrame("busy", thumbnail(scene(160, 120, 0)), now);
+        triage.recordFrame("idle", thumbnail(scene(0, 0, 0)), now);
+        triage.recordFrame("idle", thumbnail(scene(80, 0, 0)), now);
+        triage.publishRanking();
+
+        assertEquals(Arrays.asList(busy, idle, quiet, manual), triage.getRanked());
+        assertEquals(1, published.get());
+    }
+
+    private static OnvifCamera camera(String id) {
+        OnvifCamera camera = new OnvifCamera();
+        camera.setId(id);
+        camera.setIpAddress("10.0.0." + id.length());
+        return camera;
+    }
+
+    /** Grey background with an 80x60 bright block at (x, y), everything raised by lift. */
+    private static int[] scene(int blockX, int blockY, int lift) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inBlock = x >= blockX && x < blockX + 80 && y >= blockY && y < blockY + 60;
+                int level = (inBlock ? 200 : 50) + lift;
+                pixels[y * WIDTH + x] = 0xff000000 | level << 16 | level << 8 | level;
+            }
+        }
+        return pixels;
+    }
+
+    private static byte[] thumbnail(int[] pixels) {
+        MotionTriage.Decoder decoder = new MotionTriage.Decoder();
+        decoder.pixels = pixels;
+        MotionTriage.downsampleLuma(decoder, WIDTH, HEIGHT);
+        return decoder.thumbnail.clone();
+    }
+}
@@ -0,0 +1,94 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class NeighborTableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String FIXTURE =
+        "IP address       HW type     Flags       HW address            Mask     Device\n" +
+        "192.168.1.1      0x1         0x2         a4:91:b1:0c:22:f0     *        wlan0\n" +
+        "192.168.1.20     0x1         0x0         00:00:00:00:00:00     *        wlan0\n" +
+        "192.168.1.21     0x1         0x2         00:00:00:00:00:00     *        wlan0\n" +
+        "192.168.1.64     0x1         0x6         3c:ef:8c:41:7a:09     *        wlan0\n" +
+        "192.168.1.65     0x1         0x0         3c:ef:8c:41:7a:0a     *        wlan0\n" +
+        "garbage line\n" +
+        "192.168.1.99     0x1         flags       3c:ef:8c:41:7a:0b     *        wlan0\n";
+
+    @Test
+    public void parsesFlagsAndHardwareAddress() throws IOException {
+        Map<String, NeighborTable.State> table = NeighborTable.parse(new StringReader(FIXTURE));
+
+        assertEquals(NeighborTable.State.REACHABLE, table.get("192.168.1.1"));
+        // ATF_COM combined with other flags still counts as resolved
+        assertEquals(NeighborTable.State.REACHABLE, table.get("192.168.1.64"));
+        assertEquals(NeighborTable.State.INCOMPLETE, table.get("192.168.1.20"));
+        // Flag set but an all-zero MAC: resolution failed
+        assertEquals(NeighborTable.State.INCOMPLETE, table.get("192.168.1.21"));
+        // A stale MAC without ATF_COM is not trusted
+        assertEquals(NeighborTable.State.INCOMPLETE, table.get("192.168.1.65"));
+        assertFalse(table.containsKey("192.168.1.99"));
+        assertFalse(table.containsKey("IP"));
+        assertEquals(5, table.size());
+    }
+
+    @Test
+    public void emptyTableHasNoEntries() throws IOException {
+        assertTrue(NeighborTable.parse(new StringReader("")).isEmpty());
+        assertTrue(NeighborTable.parse(new StringReader(FIXTURE.substring(0, FIXTURE.indexOf('\n') + 1)))
+            .isEmpty());
+    }
+
+    @Test
+    public void ordersReachableThenUnknownThenIncomplete() throws IOException {
+        Map<String, NeighborTable.State> table = NeighborTable.parse(new StringReader(FIXTURE));
+        List<String> hosts = Arrays.asList(
+            "192.168.1.20", "192.168.1.2", "192.168.1.64", "192.168.1.21", "192.168.1.3", "192.168.1.1");
+
+        assertEquals(Arrays.asList(
+                "192.168.1.64", "192.168.1.1",
+                "192.168.1.2", "192.168.1.3",
+                "192.168.1.20", "192.168.1.21"),
+            NeighborTable.order(hosts, table, false));
+    }
+
+    @Test
+    public void skipIncompleteDropsUnresolvedHosts() throws IOException {
+        Map<String, NeighborTable.State> table = NeighborTable.parse(new StringReader(FIXTURE));
+        List<String> hosts = Arrays.asList("192.168.1.20", "192.168.1.2", "192.168.1.1", "192.168.1.65");
+
+        assertEquals(Arrays.asList("192.168.1.1", "192.168.1.2"), NeighborTable.order(hosts, table, true));
+    }
+
+    @Test
+    public void readableOnlyWhenTheTableOpens() throws IOException {
+        File arp = folder.newFile("arp");
+        try (Writer writer = new FileWriter(arp)) {
+            writer.write(FIXTURE);
+        }
+        NeighborTable table = new NeighborTable(arp);
+        assertTrue(table.isReadable());
+        assertEquals(5, table.read().size());
+
+        // What Android 10+ apps see: no usable table, so the scanner skips the pre-pass
+        NeighborTable denied = new NeighborTable(new File(folder.getRoot(), "missing"));
+        assertFalse(denied.isReadable());
+        assertTrue(denied.read().isEmpty());
+    }
+}
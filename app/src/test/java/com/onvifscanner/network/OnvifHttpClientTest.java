@@ -0,0 +1,226 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Runs the client against a local server that checks Digest credentials the way cameras do. */
+public class OnvifHttpClientTest {
+    private static final String USER = "admin";
+    private static final String PASSWORD = "secret";
+    private static final String REALM = "camera";
+    private static final Pattern PARAM = Pattern.compile("(\\w+)=(\"([^\"]*)\"|[^,\\s]*)");
+    private static final Pattern WSSE_NONCE = Pattern.compile("<wsse:Nonce[^>]*>([^<]*)</wsse:Nonce>");
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String base;
+    private volatile String nonce = "nonce-1";
+    private volatile long delayMs;
+    private final AtomicInteger ok = new AtomicInteger();
+    private final AtomicInteger challenged = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final OnvifHttpClient client = new OnvifHttpClient();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/", this::handle);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void oneChallengeCoversTwoHundredRequests() throws IOException {
+        for (int i = 0; i < 200; i++) {
+            assertEquals(200, client.get(base + "/onvif/snapshot?i=" + i, USER, PASSWORD).code);
+        }
+
+        assertEquals(1, challenged.get());
+        assertEquals(200, ok.get());
+    }
+
+    @Test
+    public void concurrentFirstRequestsShareTheHostState() throws Exception {
+        delayMs = 50;
+        int callers = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Integer>> codes = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            codes.add(pool.submit(() -> {
+                go.await();
+                return client.get(base + "/onvif/snapshot", USER, PASSWORD).code;
+            }));
+        }
+        go.countDown();
+        for (Future<Integer> code : codes) {
+            assertEquals(200, (int) code.get());
+        }
+        pool.shutdown();
+
+        // The per-host permits hold even for a host seen for the first time
+        assertTrue("max concurrent " + maxActive.get(), maxActive.get() <= 2);
+        // Only the first wave goes out unsigned
+        assertTrue("challenges " + challenged.get(), challenged.get() <= 2);
+    }
+
+    @Test
+    public void staleNonceCostsOneMoreRoundTrip() throws IOException {
+        assertEquals(200, client.get(base + "/a", USER, PASSWORD).code);
+        nonce = "nonce-2";
+        assertEquals(200, client.get(base + "/b", USER, PASSWORD).code);
+        assertEquals(200, client.get(base + "/c", USER, PASSWORD).code);
+
+        assertEquals(2, challenged.get());
+    }
+
+    @Test
+    public void silentHostsLeaveNoState() throws IOException {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        assertEquals(-1, client.probe("http://127.0.0.1:" + closedPort + "/onvif/device_service", 500));
+        assertEquals(0, client.knownHosts());
+
+        // Unsigned, so the camera challenges it; it answered, so it is remembered
+        assertEquals(401, client.probe(base + "/onvif/device_service", 500));
+        assertEquals(1, client.knownHosts());
+    }
+
+    @Test
+    public void slowBodyDoesNotFailTheProbe() {
+        // Headers at once, the body only after the probe's read timeout
+        assertEquals(200, client.probe(base + "/slow", 300));
+    }
+
+    @Test
+    public void digestRetrySendsAFreshUsernameToken() throws IOException {
+        OnvifHttpClient.Response response = client.soap(base + "/onvif/device_service",
+            "<tds:GetDeviceInformation/>", USER, PASSWORD);
+        assertEquals(200, response.code);
+
+        List<String> nonces = new ArrayList<>();
+        for (String body : bodies) {
+            Matcher m = WSSE_NONCE.matcher(body);
+            if (body.contains("GetDeviceInformation") && m.find()) nonces.add(m.group(1));
+        }
+        // Unsigned first, then the retry; a repeated token would be refused as a replay
+        assertEquals(2, nonces.size());
+        assertNotEquals(nonces.get(0), nonces.get(1));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        bodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        if (exchange.getRequestURI().getPath().equals("/slow")) {
+            exchange.sendResponseHeaders(200, 2);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.flush();
+                Thread.sleep(1000);
+                out.write("ok".getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException | IOException e) {
+                // The probe has hung up by now
+            }
+            return;
+        }
+        // Counted until the answer goes out; the client can't send its next request before that
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+            if (delayMs > 0) Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        active.decrementAndGet();
+
+        String current = nonce;
+        if (authorized(exchange, current)) {
+            ok.incrementAndGet();
+            respond(exchange, 200);
+        } else {
+            challenged.incrementAndGet();
+            exchange.getResponseHeaders().add("WWW-Authenticate", "Digest realm=\"" + REALM
+                + "\", qop=\"auth\", nonce=\"" + current + "\", algorithm=MD5"
+                + (isSigned(exchange) ? ", stale=true" : ""));
+            respond(exchange, 401);
+        }
+    }
+
+    private static boolean isSigned(HttpExchange exchange) {
+        return exchange.getRequestHeaders().getFirst("Authorization") != null;
+    }
+
+    private static boolean authorized(HttpExchange exchange, String nonce) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Digest ")) return false;
+        Map<String, String> params = new HashMap<>();
+        Matcher m = PARAM.matcher(header.substring(7));
+        while (m.find()) {
+            params.put(m.group(1), m.group(3) != null ? m.group(3) : m.group(2));
+        }
+        if (!nonce.equals(params.get("nonce")) || !USER.equals(params.get("username"))) return false;
+        String ha1 = md5(USER + ":" + REALM + ":" + PASSWORD);
+        String ha2 = md5(exchange.getRequestMethod() + ":" + params.get("uri"));
+        String expected = md5(ha1 + ":" + nonce + ":" + params.get("nc") + ":" + params.get("cnonce")
+            + ":auth:" + ha2);
+        return expected.equals(params.get("response"));
+    }
+
+    private static void respond(HttpExchange exchange, int code) throws IOException {
+        byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String md5(String value) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.onvifscanner.camera.OnvifCamera;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Runs the controller against a fake ONVIF PTZ service on localhost. */
+public class PtzControllerTest {
+    private static final String MOVE = "<tptz:ContinuousMove>";
+    private static final String STOP = "<tptz:Stop>";
+    private static final String GET_PRESETS = "<tptz:GetPresets>";
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private int port;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failStops = new AtomicInteger();
+    private final CountDownLatch releasePresets = new CountDownLatch(1);
+    private volatile boolean holdPresets;
+    private final CountDownLatch releaseMoves = new CountDownLatch(1);
+    private volatile boolean holdMoves;
+    private PtzController controller;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/", this::handle);
+        server.start();
+        port = server.getAddress().getPort();
+
+        OnvifCamera camera = new OnvifCamera();
+        camera.setIpAddress("127.0.0.1");
+        camera.setPort(port);
+        controller = new PtzController(new OnvifDevice(camera, new OnvifHttpClient()));
+    }
+
+    @After
+    public void tearDown() {
+        releasePresets.countDown();
+        releaseMoves.countDown();
+        controller.release();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void heldMoveIsBoundedAndRefreshed() throws Exception {
+        controller.move(0.5f, 0f, 0f);
+        // Nothing else arrives while the joystick is held still
+        Thread.sleep(1500);
+        controller.stop();
+        awaitCount(STOP, 1, 3000);
+
+        int moves = count(MOVE);
+        assertTrue("moves while held: " + moves, moves >= 2);
+        for (String request : requests) {
+            if (request.contains(MOVE)) {
+                assertTrue(request, request.contains("<tptz:Timeout>PT1S</tptz:Timeout>"));
+            }
+        }
+        Thread.sleep(1000);
+        assertEquals(moves, count(MOVE));
+    }
+
+    @Test
+    public void failedStopIsRetriedOnce() throws Exception {
+        failStops.set(1);
+        controller.move(0f, 0.5f, 0f);
+        controller.stop();
+
+        awaitCount(STOP, 2, 3000);
+        Thread.sleep(300);
+        assertEquals(2, count(STOP));
+    }
+
+    @Test
+    public void releaseDuringAMoveStillSendsTheStop() throws Exception {
+        holdMoves = true;
+        controller.move(0.5f, 0f, 0f);
+        awaitCount(MOVE, 1, 2000);
+
+        // The move is still waiting on the camera when the screen goes away
+        controller.release();
+        releaseMoves.countDown();
+        awaitCount(STOP, 1, 3000);
+    }
+
+    @Test
+    public void presetsDoNotHoldUpMoves() throws Exception {
+        holdPresets = true;
+        BlockingQueue<List<PtzController.Preset>> loaded = new ArrayBlockingQueue<>(1);
+        controller.loadPresets(new PtzController.Callback<List<PtzController.Preset>>() {
+            @Override
+            public void onResult(List<PtzController.Preset> presets) {
+                loaded.add(presets);
+            }
+
+            @Override
+            public void onError(String error) {
+                throw new AssertionError(error);
+            }
+        });
+        awaitCount(GET_PRESETS, 1, 3000);
+
+        controller.move(0.3f, 0f, 0f);
+        awaitCount(MOVE, 1, 2000);
+        assertTrue(loaded.isEmpty());
+
+        releasePresets.countDown();
+        List<PtzController.Preset> presets = loaded.poll(3, TimeUnit.SECONDS);
+        assertEquals(2, presets.size());
+        assertEquals("1", presets.get(0).token);
+        assertEquals("Gate", presets.get(0).name);
+        assertEquals("2", presets.get(1).name);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        requests.add(body);
+        String base = "http://127.0.0.1:" + port;
+        if (body.contains("GetCapabilities")) {
+            respond(exchange, 200, "<tds:GetCapabilitiesResponse><tds:Capabilities>" +
+                "<tt:Media><tt:XAddr>" + base + "/onvif/media</tt:XAddr></tt:Media>" +
+                "<tt:PTZ><tt:XAddr>" + base + "/onvif/ptz</tt:XAddr></tt:PTZ>" +
+                "</tds:Capabilities></tds:GetCapabilitiesResponse>");
+        } else if (body.contains("GetProfiles")) {
+            respond(exchange, 200, "<trt:GetProfilesResponse><trt:Profiles token=\"main\">" +
+                "<tt:Name>main</tt:Name></trt:Profiles></trt:GetProfilesResponse>");
+        } else if (body.contains(GET_PRESETS)) {
+            if (holdPresets) {
+                try {
+                    releasePresets.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            respond(exchange, 200, "<tptz:GetPresetsResponse>" +
+                "<tptz:Preset token=\"1\"><tt:Name>Gate</tt:Name></tptz:Preset>" +
+                "<tptz:Preset token=\"2\"/></tptz:GetPresetsResponse>");
+        } else if (body.contains(MOVE) && holdMoves) {
+            try {
+                releaseMoves.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            respond(exchange, 200, "");
+        } else if (body.contains(STOP) && failStops.getAndDecrement() > 0) {
+            respond(exchange, 500, "<s:Fault><s:Reason><s:Text>busy</s:Text></s:Reason></s:Fault>");
+        } else {
+            respond(exchange, 200, "");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String bodyXml) throws IOException {
+        byte[] bytes = ("<?xml version=\"1.0\"?><s:Envelope " +
+            "xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" " +
+            "xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\" " +
+            "xmlns:trt=\"http://www.onvif.org/ver10/media/wsdl\" " +
+            "xmlns:tptz=\"http://www.onvif.org/ver20/ptz/wsdl\" " +
+            "xmlns:tt=\"http://www.onvif.org/ver10/schema\">" +
+            "<s:Body>" + bodyXml + "</s:Body></s:Envelope>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", OnvifHttpClient.SOAP_CONTENT_TYPE);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private int count(String element) {
+        int n = 0;
+        for (String request : requests) {
+            if (request.contains(element)) n++;
+        }
+        return n;
+    }
+
+    private void awaitCount(String element, int expected, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (count(element) < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Expected " + expected + " " + element + " requests, saw " + count(element));
+            }
+            Thread.sleep(20);
+        }
+    }
+}
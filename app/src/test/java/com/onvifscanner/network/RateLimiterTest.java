@@ -0,0 +1,63 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+    private static final long MS = 1_000_000;
+
+    private long now;
+    private final RateLimiter limiter = new RateLimiter(10, 5, () -> now);
+
+    @Test
+    public void allowsTheBurstThenRefillsAtTheRate() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(100 * MS, limiter.nanosUntilAvailable());
+
+        now += 50 * MS;
+        assertFalse(limiter.tryAcquire());
+        assertEquals(50 * MS, limiter.nanosUntilAvailable());
+        now += 50 * MS;
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void idleTimeRefillsOnlyUpToTheBurst() {
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+        }
+        now += TimeUnit.SECONDS.toNanos(10);
+        int granted = 0;
+        while (limiter.tryAcquire()) granted++;
+        assertEquals(5, granted);
+
+        // Refunds can't push it past the burst either
+        for (int i = 0; i < 8; i++) {
+            limiter.refund();
+        }
+        granted = 0;
+        while (limiter.tryAcquire()) granted++;
+        assertEquals(5, granted);
+    }
+
+    @Test
+    public void acquireWaitsForTheRefill() throws InterruptedException {
+        RateLimiter real = new RateLimiter(50, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            real.acquire();
+        }
+        long elapsedMs = (System.nanoTime() - start) / MS;
+        // One from the burst, then five at 20 ms each
+        assertTrue("took " + elapsedMs + " ms", elapsedMs >= 90);
+    }
+}
@@ -0,0 +1,113 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sweeps a simulated /24 through NetworkScanner.probeAll with each executor
+ * mode. A silent host costs 100 ms (the real probe timeout is 500 ms) and one
+ * host in ten answers in 5 ms. Only thread use is checked, not timings.
+ * Thread count also stands in for memory: each platform thread reserves its
+ * own stack, and heap figures from a desktop JVM wouldn't carry over to ART.
+ */
+public class ScanExecutorsTest {
+    private static final int SILENT_MS = 100;
+    private static final int ANSWER_MS = 5;
+
+    @Test
+    public void boundedModeCapsThreadsWhereCachedDoesNot() throws Exception {
+        List<String> hosts = IpRange.parse("10.0.0").hosts();
+
+        Result bounded = sweep(ScanExecutors.Mode.BOUNDED, hosts);
+        Result cached = sweep(ScanExecutors.Mode.CACHED, hosts);
+
+        assertTrue(bounded.toString(), bounded.threads <= ScanExecutors.DEFAULT_POOL_SIZE);
+        assertTrue(bounded.toString(), bounded.peakConcurrent <= ScanExecutors.DEFAULT_POOL_SIZE);
+        // A cached pool spends a thread per waiting host instead
+        assertTrue(cached.toString(), cached.threads > bounded.threads);
+    }
+
+    @Test
+    public void timedOutSweepCancelsLeftoverProbes() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<String> hosts = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            hosts.add("10.0.0." + i);
+        }
+        AtomicInteger started = new AtomicInteger();
+        CountDownLatch never = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            int cancelled = NetworkScanner.probeAll(executor, hosts, ip -> {
+                // The first host answers at once; the second never does, so the sweep times out
+                if (started.incrementAndGet() == 1) return;
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }, 1000);
+
+            // The hung probe is interrupted and the eight behind it never start
+            assertEquals(9, cancelled);
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(2, started.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result sweep(ScanExecutors.Mode mode, List<String> hosts) throws InterruptedException {
+        ExecutorService executor = ScanExecutors.create(mode);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try {
+            int cancelled = NetworkScanner.probeAll(executor, hosts, ip -> {
+                threads.add(Thread.currentThread());
+                int now = running.incrementAndGet();
+                peak.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(ip.endsWith("0") ? ANSWER_MS : SILENT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+            }, 30_000);
+            assertEquals(0, cancelled);
+            return new Result(threads.size(), peak.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Result {
+        final int threads;
+        final int peakConcurrent;
+
+        Result(int threads, int peakConcurrent) {
+            this.threads = threads;
+            this.peakConcurrent = peakConcurrent;
+        }
+
+        @Override
+        public String toString() {
+            return threads + " threads, " + peakConcurrent + " probes at once";
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScanThrottleTest {
+    private static final long MS = 1_000_000;
+
+    private long now;
+
+    @Test
+    public void capsEachSubnetSeparately() {
+        // Bursts are a tenth of a second: 10 globally, 2 per /24
+        ScanThrottle throttle = new ScanThrottle(100, 20, () -> now);
+
+        assertTrue(throttle.tryAcquire("10.0.0.1"));
+        assertTrue(throttle.tryAcquire("10.0.0.2"));
+        assertFalse(throttle.tryAcquire("10.0.0.3"));
+        assertEquals(50 * MS, throttle.nanosUntilAvailable("10.0.0.3"));
+        assertTrue(throttle.tryAcquire("10.0.1.1"));
+        assertTrue(throttle.tryAcquire("10.0.1.2"));
+        assertEquals(0, throttle.nanosUntilAvailable("10.0.2.1"));
+
+        now += 50 * MS;
+        assertTrue(throttle.tryAcquire("10.0.0.3"));
+    }
+
+    @Test
+    public void globalBudgetSpansSubnets() {
+        ScanThrottle throttle = new ScanThrottle(10, 0, () -> now);
+
+        assertTrue(throttle.tryAcquire("10.0.0.1"));
+        assertFalse(throttle.tryAcquire("10.0.1.1"));
+        assertEquals(100 * MS, throttle.nanosUntilAvailable("192.168.1.1"));
+        now += 100 * MS;
+        assertTrue(throttle.tryAcquire("192.168.1.1"));
+    }
+
+    @Test
+    public void globalDenialReturnsTheSubnetPermit() {
+        // One packet a second per /24, ten a second overall, bursts of one
+        ScanThrottle throttle = new ScanThrottle(10, 1, () -> now);
+
+        assertTrue(throttle.tryAcquire("10.0.0.1"));
+        assertFalse(throttle.tryAcquire("10.0.1.1"));
+        now += 100 * MS;
+        // Had 10.0.1's permit been kept, it would need most of a second to refill
+        assertTrue(throttle.tryAcquire("10.0.1.1"));
+    }
+
+    @Test
+    public void refundReturnsBothPermits() {
+        ScanThrottle throttle = new ScanThrottle(10, 10, () -> now);
+
+        assertTrue(throttle.tryAcquire("10.0.0.1"));
+        assertFalse(throttle.tryAcquire("10.0.0.2"));
+        // The datagram never went out, so neither budget should pay for it
+        throttle.refund("10.0.0.1");
+        assertTrue(throttle.tryAcquire("10.0.0.2"));
+    }
+
+    @Test
+    public void blockedAcquireHoldsNoSubnetPermit() throws Exception {
+        ScanThrottle throttle = new ScanThrottle(10, 1, () -> now);
+        assertTrue(throttle.tryAcquire("10.0.0.1"));
+
+        // The clock is frozen, so this waits on the global budget until interrupted
+        Thread waiter = new Thread(() -> {
+            try {
+                throttle.acquire("10.0.1.1");
+            } catch (InterruptedException e) {
+                // Expected
+            }
+        });
+        waiter.start();
+        Thread.sleep(200);
+        assertTrue(waiter.isAlive());
+        waiter.interrupt();
+        waiter.join(2000);
+
+        now += 100 * MS;
+        assertEquals(0, throttle.nanosUntilAvailable("10.0.1.1"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.onvifscanner.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class WsSecurityTest {
+    private static final Pattern FIELD = Pattern.compile("<wsse:(Password|Nonce)[^>]*>([^<]*)<");
+    private static final Pattern CREATED = Pattern.compile("<wsu:Created>([^<]*)<");
+
+    @Test
+    public void base64MatchesTheJdkForEveryPadding() {
+        Random random = new Random(1);
+        for (int length = 0; length <= 20; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertEquals(Base64.getEncoder().encodeToString(data), WsSecurity.base64(data));
+        }
+    }
+
+    @Test
+    public void passwordDigestCoversNonceCreatedAndPassword() throws Exception {
+        String token = WsSecurity.usernameToken("admin", "secret", 1_700_000_000_000L);
+        Matcher field = FIELD.matcher(token);
+        assertTrue(field.find());
+        String digest = field.group(2);
+        assertTrue(field.find());
+        byte[] nonce = Base64.getDecoder().decode(field.group(2));
+        Matcher created = CREATED.matcher(token);
+        assertTrue(created.find());
+        assertEquals("2023-11-14T22:13:20.000Z", created.group(1));
+
+        // PasswordDigest = Base64(SHA-1(nonce + created + password))
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        sha1.update(nonce);
+        sha1.update(created.group(1).getBytes(StandardCharsets.UTF_8));
+        sha1.update("secret".getBytes(StandardCharsets.UTF_8));
+        assertEquals(16, nonce.length);
+        assertEquals(Base64.getEncoder().encodeToString(sha1.digest()), digest);
+    }
+}
@@ -0,0 +1,124 @@
+package com.onvifscanner.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class MappedRingBufferTest {
+    private static final int HEADER_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedRingBuffer ring;
+
+    @Before
+    public void setUp() throws IOException {
+        ring = new MappedRingBuffer(folder.newFile("ring"), 100, 64);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ring.close();
+    }
+
+    @Test
+    public void wrapEvictsPreviousLapTail() {
+        // The second wrap starts below the previous lap's leftover record at offset 60
+        int[] sizes = {44, 19, 4, 9, 40};
+        for (int i = 0; i < sizes.length; i++) {
+            assertTrue(ring.append(payload(i + 1, sizes[i]), sizes[i], i + 1, 0));
+            assertIntact(ring);
+        }
+        assertEquals(1, ring.size());
+        assertEquals(5, ring.ptsAt(0));
+    }
+
+    @Test
+    public void mixedSizesAcrossManyWraps() throws IOException {
+        ring.close();
+        ring = new MappedRingBuffer(folder.newFile("large"), 4096, 32);
+        Random random = new Random(42);
+        int live = 0;
+        for (int pts = 1; pts <= 5000; pts++) {
+            // Mostly small frames with the occasional large one, like P frames and key frames
+            int length = random.nextInt(10) == 0 ? 600 + random.nextInt(1200) : random.nextInt(200);
+            assertTrue(ring.append(payload(pts, length), length, pts, pts % 30 == 1 ? 1 : 0));
+            assertIntact(ring);
+            // The newest frame is always kept
+            assertEquals(pts, ring.ptsAt(ring.size() - 1));
+            live = Math.max(live, ring.size());
+        }
+        // The index cap was reached, so eviction by count was exercised as well
+        assertEquals(32, live);
+    }
+
+    @Test
+    public void oversizedFrameIsRejected() {
+        assertTrue(ring.append(payload(1, 10), 10, 1, 0));
+        assertFalse(ring.append(new byte[100], 100 - HEADER_SIZE + 1, 2, 0));
+        assertEquals(1, ring.size());
+        assertTrue(ring.append(payload(3, 100 - HEADER_SIZE), 100 - HEADER_SIZE, 3, 0));
+        assertIntact(ring);
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void keyFrameLookup() {
+        ring.append(payload(1, 4), 4, 1000, MappedRingBuffer.FLAG_KEY_FRAME);
+        ring.append(payload(2, 4), 4, 2000, 0);
+        ring.append(payload(3, 4), 4, 3000, MappedRingBuffer.FLAG_KEY_FRAME);
+        ring.append(payload(4, 4), 4, 4000, 0);
+
+        assertEquals(2, ring.keyFrameBefore(3500));
+        assertEquals(0, ring.keyFrameBefore(2500));
+        // Nothing that early: fall back to the oldest key frame
+        assertEquals(0, ring.keyFrameBefore(10));
+    }
+
+    /** Checks pts order, payloads and that no two live records share bytes. */
+    private static void assertIntact(MappedRingBuffer ring) {
+        ByteBuffer mapped = ring.mapped();
+        for (int i = 0; i < ring.size(); i++) {
+            long pts = ring.ptsAt(i);
+            if (i > 0) assertTrue(pts > ring.ptsAt(i - 1));
+            int offset = ring.offsetAt(i);
+            int length = ring.lengthAt(i);
+            assertEquals("length header of pts " + pts, length, mapped.getInt(offset - HEADER_SIZE));
+            assertEquals("pts header of pts " + pts, pts, mapped.getLong(offset - HEADER_SIZE + 4));
+            for (int b = 0; b < length; b++) {
+                if (mapped.get(offset + b) != payloadByte(pts, b)) {
+                    throw new AssertionError("Record with pts " + pts + " corrupt at byte " + b);
+                }
+            }
+            for (int j = 0; j < i; j++) {
+                int otherStart = ring.offsetAt(j) - HEADER_SIZE;
+                int otherEnd = ring.offsetAt(j) + ring.lengthAt(j);
+                assertFalse("records " + j + " and " + i + " overlap",
+                    otherStart < offset + length && offset - HEADER_SIZE < otherEnd);
+            }
+        }
+    }
+
+    private static byte[] payload(long pts, int length) {
+        byte[] data = new byte[length];
+        for (int b = 0; b < length; b++) {
+            data[b] = payloadByte(pts, b);
+        }
+        return data;
+    }
+
+    private static byte payloadByte(long pts, int index) {
+        return (byte) (pts * 31 + index);
+    }
+}
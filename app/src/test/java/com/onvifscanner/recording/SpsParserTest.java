@@ -0,0 +1,136 @@
+package com.onvifscanner.recording;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+public class SpsParserTest {
+    @Test
+    public void readsBaselineSps() {
+        // Baseline 640x480, assembled by hand: poc type 2, one reference frame, no cropping
+        byte[] sps = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1e, (byte) 0xda, 0x02, (byte) 0x80, (byte) 0xf6, (byte) 0x80};
+        assertArrayEquals(new int[] {640, 480}, SpsParser.frameSize(sps));
+    }
+
+    @Test
+    public void appliesCroppingForHighProfile1080p() {
+        SpsWriter sps = high(120, 68, true);
+        // 1088 coded lines, 4 chroma rows (8 luma lines) cropped at the bottom
+        sps.ue(0).ue(0).ue(0).ue(4);
+        assertArrayEquals(new int[] {1920, 1080}, SpsParser.frameSize(sps.finish()));
+    }
+
+    @Test
+    public void skipsScalingMatrices() {
+        SpsWriter sps = new SpsWriter(100);
+        sps.ue(0).ue(1).ue(0).ue(0).u(1, 0);
+        // Scaling matrix present: first list explicit, the rest use the fallback rule
+        sps.u(1, 1).u(1, 1);
+        for (int j = 0; j < 16; j++) sps.se(j % 2 == 0 ? 3 : -2);
+        for (int i = 1; i < 8; i++) sps.u(1, 0);
+        sps.ue(0).ue(0).ue(4).ue(2).u(1, 0);
+        sps.ue(79).ue(44).u(1, 1).u(1, 1).u(1, 0);
+        assertArrayEquals(new int[] {1280, 720}, SpsParser.frameSize(sps.finish()));
+    }
+
+    @Test
+    public void doublesHeightOfFieldCodedStreams() {
+        SpsWriter sps = new SpsWriter(77);
+        sps.ue(0).ue(0).ue(0).ue(4).ue(1).u(1, 0);
+        // 720x576 PAL, coded as 18 map units of field pairs
+        sps.ue(44).ue(17).u(1, 0).u(1, 1).u(1, 1).u(1, 0);
+        assertArrayEquals(new int[] {720, 576}, SpsParser.frameSize(sps.finish()));
+    }
+
+    @Test
+    public void removesEmulationPreventionBytes() {
+        SpsWriter sps = new SpsWriter(66);
+        sps.ue(0).ue(0).ue(1);
+        // A long run of zero bits forces 00 00 03 into the payload
+        sps.u(1, 0).se(-(1 << 29)).se(0).ue(0);
+        sps.ue(1).u(1, 0).ue(21).ue(17).u(1, 1).u(1, 1).u(1, 0);
+        byte[] encoded = sps.finish();
+        assertTrue(contains(encoded, new byte[] {0, 0, 3}));
+        assertArrayEquals(new int[] {352, 288}, SpsParser.frameSize(encoded));
+    }
+
+    @Test
+    public void rejectsOtherUnitsAndTruncatedSps() {
+        assertNull(SpsParser.frameSize(new byte[] {0, 0, 0, 1, 0x68, (byte) 0xce, 0x38, (byte) 0x80}));
+        assertNull(SpsParser.frameSize(new byte[] {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1e, (byte) 0xda}));
+        assertNull(SpsParser.frameSize(null));
+    }
+
+    private static SpsWriter high(int widthInMbs, int heightInMbs, boolean cropped) {
+        SpsWriter sps = new SpsWriter(100);
+        // sps id, 4:2:0, 8-bit, no bypass, no scaling matrix
+        sps.ue(0).ue(1).ue(0).ue(0).u(1, 0).u(1, 0);
+        // frame_num bits, poc type 0 and its lsb bits, 4 refs, no gaps
+        sps.ue(0).ue(0).ue(2).ue(4).u(1, 0);
+        sps.ue(widthInMbs - 1).ue(heightInMbs - 1).u(1, 1).u(1, 1).u(1, cropped ? 1 : 0);
+        return sps;
+    }
+
+    private static boolean contains(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Builds an Annex B SPS NAL unit bit by bit, escaping it the way an encoder would. */
+    private static class SpsWriter {
+        private final StringBuilder bits = new StringBuilder();
+
+        SpsWriter(int profileIdc) {
+            u(8, profileIdc).u(8, 0).u(8, 40);
+        }
+
+        SpsWriter u(int count, long value) {
+            for (int i = count - 1; i >= 0; i--) {
+                bits.append((value >> i & 1) == 1 ? '1' : '0');
+            }
+            return this;
+        }
+
+        SpsWriter ue(long value) {
+            long code = value + 1;
+            int length = 64 - Long.numberOfLeadingZeros(code);
+            return u(length - 1, 0).u(length, code);
+        }
+
+        SpsWriter se(long value) {
+            return ue(value > 0 ? 2 * value - 1 : -2 * value);
+        }
+
+        byte[] finish() {
+            bits.append('1');
+            while (bits.length() % 8 != 0) bits.append('0');
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(0);
+            out.write(0);
+            out.write(0);
+            out.write(1);
+            out.write(0x67);
+            int zeros = 0;
+            for (int i = 0; i < bits.length(); i += 8) {
+                int b = Integer.parseInt(bits.substring(i, i + 8), 2);
+                if (zeros >= 2 && b <= 3) {
+                    out.write(3);
+                    zeros = 0;
+                }
+                out.write(b);
+                zeros = b == 0 ? zeros + 1 : 0;
+            }
+            return out.toByteArray();
+        }
+    }
+}